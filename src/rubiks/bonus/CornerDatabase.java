@@ -0,0 +1,382 @@
+package rubiks.bonus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pattern database of the corners of a cube: for every arrangement of the
+ * corners, the number of twists needed to solve the corners alone. Solving the
+ * cube takes at least as many twists, so this is an admissible heuristic for
+ * IDA*.
+ *
+ * Every twist turns the outermost layer of its axis, and the corners are all
+ * in the outermost layers, so which rows are twisted does not matter for the
+ * corners. Cubes of every size therefore have the same corner moves (one per
+ * axis and direction) and share a single database. For a 2x2x2 cube the
+ * corners are the entire cube, so the database gives the exact distance.
+ *
+ * An arrangement is given by two coordinates: the permutation of the seven
+ * corners which can move, and the orientation of the corner at each of these
+ * seven positions. The corner at position 7 never moves. Both coordinates
+ * have a move table, so twisting them is a single lookup.
+ *
+ * Distances are stored as 4 bit values in a file (see FILE_PROPERTY and
+ * DatabaseFile), which is built on first use and memory mapped afterwards.
+ */
+final class CornerDatabase {
+
+    // system property with the name of the database file
+    static final String FILE_PROPERTY = "rubiks.corners";
+
+    static final int CORNERS = 8;
+
+    // corners which can move. The last corner never moves
+    static final int MOVING = CORNERS - 1;
+
+    static final int PERMUTATIONS = 5040; // 7!
+
+    static final int ORIENTATIONS = 2187; // 3^7
+
+    // moves of the corners, one per axis and direction
+    static final int MOVES = 6;
+
+    private static final int UNKNOWN = 15;
+
+    private static CornerDatabase instance = null;
+
+    // new coordinate for each (coordinate, move) pair, stored as
+    // [coordinate * MOVES + move]
+    private final short[] permutationMoves;
+
+    private final short[] orientationMoves;
+
+    // distance of each arrangement, two per byte, indexed by
+    // permutation * ORIENTATIONS + orientation
+    private final MappedByteBuffer distances;
+
+    /**
+     * Returns the database, building or loading it on first use.
+     *
+     * @return the corner pattern database
+     */
+    static synchronized CornerDatabase get() {
+        if (instance == null) {
+            try {
+                instance = new CornerDatabase();
+            } catch (IOException e) {
+                throw new Error("cannot load corner database: " + e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Corner move done by a move of a cube.
+     *
+     * @param size
+     *            size of the cube
+     * @param move
+     *            number of the move, see TwistTable
+     * @return number of the corner move
+     */
+    static int move(int size, int move) {
+        int axis = move / (2 * (size - 1));
+        return (axis * 2) + (move & 1);
+    }
+
+    private CornerDatabase() throws IOException {
+        permutationMoves = new short[PERMUTATIONS * MOVES];
+        orientationMoves = new short[ORIENTATIONS * MOVES];
+        buildMoveTables();
+
+        File file = DatabaseFile.file(FILE_PROPERTY, "rubiks-corners.db");
+        long length = ((PERMUTATIONS * ORIENTATIONS) + 1) / 2;
+
+        MappedByteBuffer mapped = DatabaseFile.map(file, "corners", 3, length);
+        if (mapped == null) {
+            DatabaseFile.write(file, "corners", 3, DatabaseFile
+                    .pack(buildDistances()));
+            mapped = DatabaseFile.map(file, "corners", 3, length);
+        }
+        distances = mapped;
+    }
+
+    /**
+     * Permutation coordinate after a corner move.
+     *
+     * @param coordinate
+     *            permutation coordinate before the move
+     * @param move
+     *            number of the corner move, see move()
+     * @return permutation coordinate after the move
+     */
+    int permutation(int coordinate, int move) {
+        return permutationMoves[(coordinate * MOVES) + move];
+    }
+
+    /**
+     * Orientation coordinate after a corner move.
+     *
+     * @param coordinate
+     *            orientation coordinate before the move
+     * @param move
+     *            number of the corner move, see move()
+     * @return orientation coordinate after the move
+     */
+    int orientation(int coordinate, int move) {
+        return orientationMoves[(coordinate * MOVES) + move];
+    }
+
+    /**
+     * Minimum number of twists needed to solve the corners.
+     *
+     * @param permutation
+     *            permutation coordinate of the corners
+     * @param orientation
+     *            orientation coordinate of the corners
+     * @return lower bound on the twists needed to solve the cube
+     */
+    int distance(int permutation, int orientation) {
+        return DatabaseFile.distance(distances, (permutation * ORIENTATIONS)
+                + orientation);
+    }
+
+    /**
+     * Permutation coordinate of the corners of a cube.
+     *
+     * @param cube
+     *            cube of any size
+     * @return permutation coordinate
+     */
+    int permutation(Cube cube) {
+        int[] permutation = new int[CORNERS];
+        int[] orientation = new int[CORNERS];
+        identify(cube, permutation, orientation);
+        return rank(permutation);
+    }
+
+    /**
+     * Orientation coordinate of the corners of a cube.
+     *
+     * @param cube
+     *            cube of any size
+     * @return orientation coordinate
+     */
+    int orientation(Cube cube) {
+        int[] permutation = new int[CORNERS];
+        int[] orientation = new int[CORNERS];
+        identify(cube, permutation, orientation);
+        return encode(orientation);
+    }
+
+    // *** Only private functions ahead ***\\
+
+    /**
+     * Determines which corner is at each position of a cube, and where its
+     * first element (see TwistTable.corners()) is.
+     */
+    private static void identify(Cube cube, int[] permutation,
+            int[] orientation) {
+        int size = cube.getSize();
+        int sideSize = size * size;
+        TwistTable table = TwistTable.forSize(size);
+        int[][] corners = table.corners();
+        byte[] elements = cube.getElements();
+        byte[] solvedColors = table.solvedColors(elements);
+
+        for (int position = 0; position < CORNERS; position++) {
+            boolean found = false;
+
+            for (int corner = 0; corner < CORNERS && !found; corner++) {
+                // check if all colors of this corner are at this position
+                int first = -1;
+                int matches = 0;
+                for (int i = 0; i < 3; i++) {
+                    byte color = solvedColors[corners[corner][i] / sideSize];
+                    for (int j = 0; j < 3; j++) {
+                        if (elements[corners[position][j]] == color) {
+                            matches++;
+                            if (i == 0) {
+                                first = j;
+                            }
+                        }
+                    }
+                }
+
+                if (matches == 3) {
+                    permutation[position] = corner;
+                    orientation[position] = first;
+                    found = true;
+                }
+            }
+
+            if (!found) {
+                throw new Error("cube not consistent!");
+            }
+        }
+    }
+
+    /**
+     * Builds the move tables of both coordinates, using the twists of the
+     * smallest cube.
+     */
+    private void buildMoveTables() {
+        TwistTable table = TwistTable.forSize(2);
+        int[][] corners = table.corners();
+
+        // position and index within that position of each corner element
+        int[] cornerOf = new int[Cube.SIDES * 4];
+        int[] indexOf = new int[Cube.SIDES * 4];
+        for (int position = 0; position < CORNERS; position++) {
+            for (int i = 0; i < 3; i++) {
+                cornerOf[corners[position][i]] = position;
+                indexOf[corners[position][i]] = i;
+            }
+        }
+
+        // for each move, the new position of each position, and the new index
+        // of each element of each position
+        int[][] targets = new int[MOVES][CORNERS];
+        int[][][] indices = new int[MOVES][CORNERS][3];
+        for (int move = 0; move < MOVES; move++) {
+            int[] permutation = table.permutation(move);
+            for (int to = 0; to < permutation.length; to++) {
+                int from = permutation[to];
+                targets[move][cornerOf[from]] = cornerOf[to];
+                indices[move][cornerOf[from]][indexOf[from]] = indexOf[to];
+            }
+            if (targets[move][MOVING] != MOVING) {
+                throw new Error("fixed corner moved");
+            }
+        }
+
+        int[] before = new int[CORNERS];
+        int[] after = new int[CORNERS];
+
+        for (int coordinate = 0; coordinate < PERMUTATIONS; coordinate++) {
+            for (int move = 0; move < MOVES; move++) {
+                unrank(coordinate, before);
+                for (int position = 0; position < CORNERS; position++) {
+                    after[targets[move][position]] = before[position];
+                }
+                permutationMoves[(coordinate * MOVES) + move] = (short) rank(
+                        after);
+            }
+        }
+
+        for (int coordinate = 0; coordinate < ORIENTATIONS; coordinate++) {
+            for (int move = 0; move < MOVES; move++) {
+                decode(coordinate, before);
+                for (int position = 0; position < CORNERS; position++) {
+                    int index = indices[move][position][before[position]];
+                    after[targets[move][position]] = index;
+                }
+                orientationMoves[(coordinate * MOVES) + move] = (short) encode(
+                        after);
+            }
+        }
+    }
+
+    /**
+     * Breadth first search from the solved cube over all arrangements.
+     *
+     * @return distances of all arrangements
+     */
+    private byte[] buildDistances() {
+        int size = PERMUTATIONS * ORIENTATIONS;
+        byte[] distance = new byte[size];
+        Arrays.fill(distance, (byte) UNKNOWN);
+
+        int[] solved = new int[CORNERS];
+        for (int i = 0; i < CORNERS; i++) {
+            solved[i] = i;
+        }
+        distance[rank(solved) * ORIENTATIONS] = 0;
+
+        boolean changed = true;
+        for (int depth = 0; changed; depth++) {
+            changed = false;
+
+            for (int index = 0; index < size; index++) {
+                if (distance[index] != depth) {
+                    continue;
+                }
+                int permutation = index / ORIENTATIONS;
+                int orientation = index % ORIENTATIONS;
+
+                for (int move = 0; move < MOVES; move++) {
+                    int next = (permutation(permutation, move) * ORIENTATIONS)
+                            + orientation(orientation, move);
+                    if (distance[next] == UNKNOWN) {
+                        if (depth + 1 >= UNKNOWN) {
+                            throw new Error(
+                                    "corner distance does not fit in 4 bits");
+                        }
+                        distance[next] = (byte) (depth + 1);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return distance;
+    }
+
+    // rank of the permutation of the moving corners (Lehmer code)
+    private static int rank(int[] permutation) {
+        int result = 0;
+        for (int i = 0; i < MOVING; i++) {
+            int smaller = 0;
+            for (int j = i + 1; j < MOVING; j++) {
+                if (permutation[j] < permutation[i]) {
+                    smaller++;
+                }
+            }
+            result = (result * (MOVING - i)) + smaller;
+        }
+        return result;
+    }
+
+    private static void unrank(int rank, int[] permutation) {
+        int[] code = new int[MOVING];
+        for (int i = MOVING - 1; i >= 0; i--) {
+            code[i] = rank % (MOVING - i);
+            rank /= MOVING - i;
+        }
+
+        boolean[] used = new boolean[MOVING];
+        for (int i = 0; i < MOVING; i++) {
+            int skip = code[i];
+            for (int corner = 0; corner < MOVING; corner++) {
+                if (!used[corner]) {
+                    if (skip == 0) {
+                        permutation[i] = corner;
+                        used[corner] = true;
+                        break;
+                    }
+                    skip--;
+                }
+            }
+        }
+        permutation[MOVING] = MOVING;
+    }
+
+    private static int encode(int[] orientation) {
+        int result = 0;
+        for (int i = MOVING - 1; i >= 0; i--) {
+            result = (result * 3) + orientation[i];
+        }
+        return result;
+    }
+
+    private static void decode(int coordinate, int[] orientation) {
+        for (int i = 0; i < MOVING; i++) {
+            orientation[i] = coordinate % 3;
+            coordinate /= 3;
+        }
+        orientation[MOVING] = 0;
+    }
+
+}
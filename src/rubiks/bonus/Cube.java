@@ -5,12 +5,16 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
  * @author Niels Drost
  *
- *         A rubik's cube.
+ *         A rubik's cube. Two cubes are equal if they have the same size
+ *         and the same color at every element, no matter how many twists
+ *         they took. Cubes are twisted in place, so a cube used as a key in
+ *         a hash table should not be twisted afterwards.
  *
  */
 public class Cube implements Serializable {
@@ -57,17 +61,53 @@ public class Cube implements Serializable {
     private int size; // size of this cube
 
     /*
-     * content of the cube. Data format is an array of sides, with all the
-     * elements of each side as an array of bytes.
+     * content of the cube. Data format is a single array with all the elements
+     * of all sides, side after side. Element (row, column) of a side is at
+     * index (side * size * size) + (row * size) + column.
      *
      * expanded view of cube (with starting colors, top = white):
      *
      * W BOGR Y
+     *
+     * Small cubes (see PackedTable) are not stored in this array, which is
+     * null for those cubes, but packed in three longs instead.
      */
-    private final byte[][] data;
+    private byte[] data;
+
+    private long packed0, packed1, packed2;
+
+    // packed state before each twist, indexed by number of twists. Used to
+    // undo twists of packed cubes without twisting back
+    private transient long[] history;
+
+    // temporary space used when twisting in place, see TwistTable
+    private transient byte[] buffer;
+
+    // permutation tables for this size cube, shared by all cubes of this size
+    private transient TwistTable table;
+
+    private transient PackedTable packedTable;
+
+    // all corner elements, and the color each has when solved. Checked first
+    // by isSolved. Never change, so shared by all copies. Not used for packed
+    // cubes
+    private int[] corners;
+
+    private byte[] cornerColors;
+
+    // (Zobrist) hash of the elements of this cube, see TwistTable. Only
+    // computed when asked for, but from then on every twist updates it by
+    // the elements it moves. Not used for packed cubes
+    private transient long hash;
+
+    private transient boolean hashed;
 
     private int twists; // number of twists this cube is a result of
 
+    // moves done so far, indexed by number of twists. A move always fits in a
+    // single (unsigned) byte, see TwistTable
+    private byte[] sequence;
+
     private int bound; // bound, useful for limiting the search depth
 
     /**
@@ -79,8 +119,8 @@ public class Cube implements Serializable {
     public Cube(int size) {
         this.size = size;
 
-        // init data arrays
-        data = new byte[SIDES][size * size];
+        // init data array
+        data = new byte[SIDES * size * size];
 
         twists = 0;
         bound = 0;
@@ -88,9 +128,12 @@ public class Cube implements Serializable {
         // init state. side 0 should be white, side 1 is yellow, etc.
         for (byte side = 0; side < SIDES; side++) {
             for (int element = 0; element < size * size; element++) {
-                data[side][element] = side;
+                data[(side * size * size) + element] = side;
             }
         }
+
+        pack();
+        findCorners();
     }
 
     /**
@@ -116,17 +159,7 @@ public class Cube implements Serializable {
             int row = random.nextInt(size - 1) + 1;
             boolean direction = random.nextBoolean();
 
-            switch (axis) {
-            case 0:
-                twistX(row, direction);
-                break;
-            case 1:
-                twistY(row, direction);
-                break;
-            case 2:
-                twistZ(row, direction);
-                break;
-            }
+            twist(TwistTable.move(size, Axis.values()[axis], row, direction));
         }
 
         // set twists back to 0
@@ -147,17 +180,20 @@ public class Cube implements Serializable {
         this.size = original.size;
         this.twists = original.twists;
         this.bound = original.bound;
-
-        // init data arrays
-        data = new byte[SIDES][size * size];
+        original.copySequence(this);
 
         // init state.
-        for (byte i = 0; i < SIDES; i++) {
-            for (int j = 0; j < size * size; j++) {
-                data[i][j] = original.data[i][j];
-            }
+        if (original.data == null) {
+            packed0 = original.packed0;
+            packed1 = original.packed1;
+            packed2 = original.packed2;
+        } else {
+            data = original.data.clone();
+            corners = original.corners;
+            cornerColors = original.cornerColors;
+            hash = original.hash;
+            hashed = original.hashed;
         }
-
     }
 
     public Cube(String fileName) throws Exception {
@@ -179,8 +215,8 @@ public class Cube implements Serializable {
                                 + sizeString);
             }
 
-            // init data arrays
-            data = new byte[SIDES][size * size];
+            // init data array
+            data = new byte[SIDES * size * size];
 
             for (int i = 0; i < SIDES; i++) {
                 for (int x = 0; x < size; x++) {
@@ -193,9 +229,9 @@ public class Cube implements Serializable {
 
                     for (int y = 0; y < size; y++) {
                         byte color = parseElement(line.charAt(y));
-                        int elementIndex = element(x, y);
+                        int elementIndex = element(i, x, y);
 
-                        data[i][elementIndex] = color;
+                        data[elementIndex] = color;
                     }
 
                 }
@@ -205,6 +241,59 @@ public class Cube implements Serializable {
                 reader.close();
             }
         }
+
+        pack();
+        findCorners();
+    }
+
+    /**
+     * Creates a cube from all its elements on a single line, with the colors
+     * of a cube file (see Cube(String)): side by side, row by row. The size
+     * follows from the number of elements.
+     *
+     * @param elements
+     *            colors of all elements of the cube
+     * @return the cube
+     * @throws Exception
+     *             if the line does not describe a cube, or describes a cube
+     *             of size 3 which cannot be solved (see
+     *             CubieCube.isSolvable())
+     */
+    public static Cube parse(String elements) throws Exception {
+        int size = 1;
+        while (SIDES * size * size < elements.length()) {
+            size++;
+        }
+        if (size < 2 || SIDES * size * size != elements.length()) {
+            throw new Exception("expected " + SIDES
+                    + " sides of size * size elements, got "
+                    + elements.length() + " elements");
+        }
+        return new Cube(size, elements);
+    }
+
+    private Cube(int size, String elements) throws Exception {
+        this.size = size;
+        twists = 0;
+        bound = 0;
+
+        // the elements are in the same order as the data array
+        data = new byte[SIDES * size * size];
+        for (int element = 0; element < data.length; element++) {
+            data[element] = parseElement(elements.charAt(element));
+        }
+
+        pack();
+        findCorners();
+
+        // just in case
+        checkIfConsistent();
+
+        // no twists lead to such a cube, a search for it would never end
+        if (size == CubieCube.SIZE && !new CubieCube(this).isSolvable()) {
+            throw new Exception("cube cannot be solved: pieces missing, "
+                    + "twisted, flipped or swapped");
+        }
     }
 
     /**
@@ -217,10 +306,19 @@ public class Cube implements Serializable {
         target.size = size;
         target.twists = twists;
         target.bound = bound;
+        copySequence(target);
 
         // init state.
-        for (byte i = 0; i < SIDES; i++) {
-            System.arraycopy(data[i], 0, target.data[i], 0, data[i].length);
+        if (data == null) {
+            target.packed0 = packed0;
+            target.packed1 = packed1;
+            target.packed2 = packed2;
+        } else {
+            System.arraycopy(data, 0, target.data, 0, data.length);
+            target.corners = corners;
+            target.cornerColors = cornerColors;
+            target.hash = hash;
+            target.hashed = hashed;
         }
     }
 
@@ -242,6 +340,34 @@ public class Cube implements Serializable {
         return twists;
     }
 
+    /**
+     * Returns the move done at a given twist of this cube.
+     *
+     * @param twist
+     *            number of the twist ( 0 <= twist < getTwists() )
+     * @return number of the move, see TwistTable
+     */
+    public int getMove(int twist) {
+        if (twist < 0 || twist >= twists) {
+            throw new Error("no such twist: " + twist);
+        }
+        return sequence[twist] & 0xFF;
+    }
+
+    /**
+     * Returns the colors of all elements of this cube, in the format of the
+     * data array.
+     *
+     * @return a copy of the elements of this cube
+     */
+    byte[] getElements() {
+        byte[] result = new byte[SIDES * size * size];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = color(i);
+        }
+        return result;
+    }
+
     /**
      * Get the bound of this cube. Not actually used in this class, but useful
      * in search algorithm.
@@ -264,16 +390,34 @@ public class Cube implements Serializable {
     }
 
     /**
-     * Returns if this cube is solved or not.
+     * Returns if this cube is solved or not. The corners are checked first: the
+     * few corner elements decide nearly all unsolved cubes, whatever the size
+     * of the cube, so whole sides only need to be scanned once all corners are
+     * in place.
      *
      * @return true if solved, false if not
      */
     public boolean isSolved() {
-        for (byte i = 0; i < SIDES; i++) {
+        if (data == null) {
+            PackedTable packedTable = packedTable();
+            return packedTable.isSolved(packed0)
+                    && packedTable.isSolved(packed1)
+                    && packedTable.isSolved(packed2);
+        }
+
+        for (int i = 0; i < corners.length; i++) {
+            if (data[corners[i]] != cornerColors[i]) {
+                return false;
+            }
+        }
+
+        int sideSize = size * size;
+
+        for (int side = 0; side < data.length; side += sideSize) {
             // all elements must be the same color as first element
-            byte color = data[i][0];
-            for (int j = 1; j < size * size; j++) {
-                if (data[i][j] != color) {
+            byte color = data[side];
+            for (int j = side + 1; j < side + sideSize; j++) {
+                if (data[j] != color) {
                     return false;
                 }
             }
@@ -282,30 +426,178 @@ public class Cube implements Serializable {
     }
 
     /**
-     * Twists this cube in each way possible.
+     * Returns a 64 bit hash of the elements of this cube. Equal cubes have the
+     * same hash, on every machine. After the first call, every twist updates
+     * the hash, which is much cheaper than computing it again.
+     *
+     * @return the hash of this cube
+     */
+    public long getHash() {
+        if (data == null) {
+            return PackedTable.hash(packed0, packed1, packed2);
+        }
+
+        if (!hashed) {
+            hash = table().hash(data);
+            hashed = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the elements of this cube packed in as few longs as possible,
+     * 3 bits per element. Together with the size this identifies the cube
+     * exactly, so it can be stored instead of the cube itself.
      *
-     * @param cache
-     *            cache used to get new cube objects from.
+     * @return the packed elements of this cube
+     */
+    public long[] getKey() {
+        if (data == null) {
+            return new long[] { packed0, packed1, packed2 };
+        }
+
+        int perWord = 64 / PackedTable.BITS;
+        long[] result = new long[(data.length + perWord - 1) / perWord];
+        for (int i = 0; i < data.length; i++) {
+            result[i / perWord] |= ((long) data[i]) << ((i % perWord)
+                    * PackedTable.BITS);
+        }
+        return result;
+    }
+
+    /**
+     * Hash code based on getHash().
      *
-     * @return all the possible children of this cube.
+     * @return the hash code of this cube
      */
-    public Cube[] generateChildren(CubeCache cache) {
-        // number of possible twists is constant for each size cube
-        Cube[] result = new Cube[6 * (size - 1)];
-        int next = 0;
+    public int hashCode() {
+        long hash = getHash();
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Returns if the given object is a cube of the same size with the same
+     * colors at every element.
+     *
+     * @param other
+     *            object to compare with
+     * @return true if equal, false if not
+     */
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Cube)) {
+            return false;
+        }
+
+        Cube cube = (Cube) other;
+        if (size != cube.size) {
+            return false;
+        }
+
+        if (data == null || cube.data == null) {
+            return data == cube.data && packed0 == cube.packed0
+                    && packed1 == cube.packed1 && packed2 == cube.packed2;
+        }
+
+        if (hashed && cube.hashed && hash != cube.hash) {
+            return false;
+        }
+        return Arrays.equals(data, cube.data);
+    }
+
+    /**
+     * Number of different twists possible for this cube.
+     *
+     * @return the number of moves
+     */
+    public int getMoves() {
+        return TwistTable.moves(size);
+    }
+
+    /**
+     * Twist this cube in place. Only the elements which actually move are
+     * touched, so no copy of the cube is needed. Use untwist to undo.
+     *
+     * @param move
+     *            number of the move ( 0 <= move < getMoves() ), see TwistTable
+     */
+    public void twist(int move) {
+        if (data == null) {
+            twistPacked(move);
+        } else {
+            if (hashed) {
+                hash ^= table().hashChange(move, data);
+            }
+            table().applyInPlace(move, data, buffer());
+        }
+
+        // record this twist
+        if (sequence == null || sequence.length <= twists) {
+            byte[] grown = new byte[Math.max(twists, 16) * 2];
+            if (sequence != null) {
+                System.arraycopy(sequence, 0, grown, 0, sequence.length);
+            }
+            sequence = grown;
+        }
+        sequence[twists] = (byte) move;
+        twists++;
+    }
 
-        for (Axis axis : Axis.values()) {
-            for (int row = 1; row < size; row++) {
-                result[next++] = twist(axis, row, true, cache);
-                result[next++] = twist(axis, row, false, cache);
+    /**
+     * Undo a twist done by twist(move). Twists must be undone in reverse order.
+     *
+     * @param move
+     *            number of the move to undo
+     */
+    public void untwist(int move) {
+        if (data == null) {
+            // simply restore the state from before the twist
+            int last = (twists - 1) * PackedTable.WORDS;
+            packed0 = history[last];
+            packed1 = history[last + 1];
+            packed2 = history[last + 2];
+        } else {
+            int inverse = TwistTable.inverseMove(move);
+            if (hashed) {
+                hash ^= table().hashChange(inverse, data);
             }
+            table().applyInPlace(inverse, data, buffer());
+        }
+
+        twists--;
+    }
+
+    /**
+     * Twists this cube in each way possible, into the children of a ply of
+     * an arena. The children of the last cube generated at this ply are
+     * overwritten.
+     *
+     * @param arena
+     *            arena holding the children
+     * @param ply
+     *            ply of the children in the arena
+     *
+     * @return all the possible children of this cube, in the order of their
+     *         move numbers.
+     */
+    public Cube[] generateChildren(CubeArena arena, int ply) {
+        Cube[] result = arena.children(ply);
+
+        // number of possible twists is constant for each size cube
+        for (int move = 0; move < result.length; move++) {
+            twist(move, result[move]);
         }
 
         return result;
     }
 
     /**
-     * Twist the cube, returning the result as a new cube.
+     * Twist the cube, returning the result in a given cube. The result does
+     * not share any elements with this cube: elements which do not move are
+     * copied from this cube in long runs, see TwistTable, so a side left
+     * alone by the twist costs a single block copy.
      *
      * @param axis
      *            axis to turn cube on
@@ -313,12 +605,12 @@ public class Cube implements Serializable {
      *            first row which to turn ( 0 < row < size )
      * @param direction
      *            direction to turn, either positive or negative
-     * @param cache
-     *            cache used to get new cube objects from.
+     * @param result
+     *            cube of the same size to write the result to
      *
      * @return the resulting cube after twisting
      */
-    public Cube twist(Axis axis, int row, boolean direction, CubeCache cache) {
+    public Cube twist(Axis axis, int row, boolean direction, Cube result) {
         if (row <= 0) {
             throw new Error("first row to twist must be greater then zero");
         }
@@ -329,23 +621,44 @@ public class Cube implements Serializable {
                             + size);
         }
 
-        Cube result = cache.get();
-        this.copyTo(result);
+        return twist(TwistTable.move(size, axis, row, direction), result);
+    }
 
-        switch (axis) {
-        case X:
-            result.twistX(row, direction);
-            break;
-        case Y:
-            result.twistY(row, direction);
-            break;
-        case Z:
-            result.twistZ(row, direction);
-            break;
-        default:
-            // should not happen, but you never know :)
-            throw new Error("unknown axis in twist");
+    /**
+     * Twist the cube, returning the result in a given cube, see
+     * twist(Axis, int, boolean, Cube).
+     *
+     * @param move
+     *            number of the move, see TwistTable
+     * @param result
+     *            cube of the same size to write the result to
+     *
+     * @return the resulting cube after twisting
+     */
+    Cube twist(int move, Cube result) {
+        result.size = size;
+        result.bound = bound;
+        result.twists = twists + 1;
+        copySequence(result);
+        result.sequence[twists] = (byte) move;
+
+        if (data == null) {
+            PackedTable packedTable = packedTable();
+            result.packed0 = packedTable.twist(move, 0, packed0, packed1, packed2);
+            result.packed1 = packedTable.twist(move, 1, packed0, packed1, packed2);
+            result.packed2 = packedTable.twist(move, 2, packed0, packed1, packed2);
+        } else {
+            // gather elements straight from this cube into the result, no need
+            // to copy first
+            table().apply(move, data, result.data);
+            result.corners = corners;
+            result.cornerColors = cornerColors;
+            result.hashed = hashed;
+            if (hashed) {
+                result.hash = hash ^ table().hashChange(move, data);
+            }
         }
+
         return result;
     }
 
@@ -390,200 +703,172 @@ public class Cube implements Serializable {
     // *** Only private functions ahead. No need to understand those ;) ***\\
 
     /**
-     * Computes the "inverse" of a row or column (last = first, etc)
-     *
-     * @param value
-     *            original value
-     * @return inverse of value (last = first, etc)
-     */
-    private int inverse(int value) {
-        return size - 1 - value;
-    }
-
-    /**
-     * Computes the position into the data array for each side from the row and
-     * column
+     * Computes the position into the data array from the side, row and column
      *
+     * @param side
+     *            side of element
      * @param row
      *            row of element
      * @param column
      *            column of element
      * @return position in array of element
      */
-    private int element(int row, int column) {
-        return (row * size) + column;
+    private int element(int side, int row, int column) {
+        return (side * size * size) + (row * size) + column;
     }
 
     /**
-     * rotate side of a cube (side effect of twisting)
+     * Returns the twist table for this size cube.
      *
-     * @param side
-     *            side to turn
-     * @param direction
-     *            direction to turn side in (positive or negative)
+     * @return the twist table of this cube
      */
-    private void rotate(int side, boolean direction) {
-        byte[] result = new byte[size * size];
+    private TwistTable table() {
+        if (table == null) {
+            table = TwistTable.forSize(size);
+        }
+        return table;
+    }
 
-        if (direction) {
-            for (int row = 0; row < size; row++) {
-                int toColumn = inverse(row);
-                for (int column = 0; column < size; column++) {
-                    int toRow = column;
-                    // System.out.println(row + "," + column + " <= " + toRow
-                    // + "," + toColumn);
-                    result[(toRow * size) + toColumn] = data[side][(row * size)
-                            + column];
-                }
-            }
-        } else {
-            for (int row = 0; row < size; row++) {
-                int fromColumn = inverse(row);
-                for (int column = 0; column < size; column++) {
-                    int fromRow = column;
-                    // System.out.println(row + "," + column + " <= " + fromRow
-                    // + "," + fromColumn);
-                    result[(row * size) + column] = data[side][(fromRow * size)
-                            + fromColumn];
-                }
-            }
+    /**
+     * Copy the moves done so far to another cube, making room for at least one
+     * more move.
+     *
+     * @param target
+     *            cube to copy the moves to. May have more twists than this
+     *            cube already
+     */
+    private void copySequence(Cube target) {
+        int length = Math.max(target.twists, twists) + 1;
+        if (target.sequence == null || target.sequence.length < length) {
+            target.sequence = new byte[Math.max(length, 16)];
+        }
+        if (twists > 0) {
+            System.arraycopy(sequence, 0, target.sequence, 0, twists);
         }
+    }
 
-        System.arraycopy(result, 0, data[side], 0, result.length);
+    /**
+     * Returns the temporary space used for twisting this cube in place.
+     *
+     * @return buffer of size * size elements
+     */
+    private byte[] buffer() {
+        if (buffer == null) {
+            buffer = new byte[size * size];
+        }
+        return buffer;
     }
 
     /**
-     * Twist cube on the X-axis.
+     * Returns the packed twist table for this size cube.
      *
-     * @param firstRow
-     *            first row which to turn ( 0 < row < size )
-     * @param direction
-     *            direction to turn, either positive or negative
+     * @return the packed twist table of this cube
      */
-    private void twistX(int firstRow, boolean direction) {
-        // System.out.println("Twisting over X axis, first row " + firstRow
-        // + " in positive direction: " + direction);
-
-        int firstElement = firstRow * size;
-
-        // warning: fiddling with cube content ahead :)
-        for (int element = firstElement; element < size * size; element++) {
-
-            if (direction) {
-                byte tmp = data[BACK][element];
-                data[BACK][element] = data[RIGHT][element];
-                data[RIGHT][element] = data[FRONT][element];
-                data[FRONT][element] = data[LEFT][element];
-                data[LEFT][element] = tmp;
-            } else {
-                byte tmp = data[LEFT][element];
-                data[LEFT][element] = data[FRONT][element];
-                data[FRONT][element] = data[RIGHT][element];
-                data[RIGHT][element] = data[BACK][element];
-                data[BACK][element] = tmp;
-            }
+    private PackedTable packedTable() {
+        if (packedTable == null) {
+            packedTable = PackedTable.forSize(size);
         }
+        return packedTable;
+    }
 
-        rotate(BOTTOM, direction);
+    /**
+     * Store the content of the data array in three longs instead, if this cube
+     * is small enough.
+     */
+    private void pack() {
+        if (!PackedTable.supports(size)) {
+            return;
+        }
 
-        // record this twist
-        twists++;
+        PackedTable packedTable = packedTable();
+        packed0 = packedTable.pack(data, 0);
+        packed1 = packedTable.pack(data, 1);
+        packed2 = packedTable.pack(data, 2);
+        data = null;
     }
 
     /**
-     * Twist cube on the Y-axis.
-     *
-     * @param firstColumn
-     *            first column which to turn ( 0 < column < size )
-     * @param direction
-     *            direction to turn, either positive or negative
+     * Determine the color each corner element has when this cube is solved.
+     * Not needed for packed cubes.
      */
-    private void twistY(int firstColumn, boolean direction) {
-        // System.out.println("Twisting over Y axis, first column " +
-        // firstColumn
-        // + " in positive direction: " + direction);
-
-        for (int row = 0; row < size; row++) {
-            for (int column = firstColumn; column < size; column++) {
-                int element = (row * size) + column;
-
-                // back is "mirrored"
-                int backRow = inverse(row);
-                int backColumn = inverse(column);
-                int backElement = (backRow * size) + backColumn;
-
-                if (direction) {
-                    byte tmp = data[TOP][element];
-                    data[TOP][element] = data[FRONT][element];
-                    data[FRONT][element] = data[BOTTOM][element];
-                    data[BOTTOM][element] = data[BACK][backElement];
-                    data[BACK][backElement] = tmp;
-                } else {
-                    byte tmp = data[TOP][element];
-                    data[TOP][element] = data[BACK][backElement];
-                    data[BACK][backElement] = data[BOTTOM][element];
-                    data[BOTTOM][element] = data[FRONT][element];
-                    data[FRONT][element] = tmp;
-                }
-            }
+    private void findCorners() {
+        if (data == null) {
+            return;
         }
-        rotate(RIGHT, direction);
 
-        // record this twist
-        twists++;
+        TwistTable table = table();
+        byte[] solvedColors = table.solvedColors(data);
+        int sideSize = size * size;
 
+        int[][] cubies = table.corners();
+        corners = new int[cubies.length * 3];
+        cornerColors = new byte[corners.length];
+
+        int next = 0;
+        for (int[] cubie : cubies) {
+            for (int element : cubie) {
+                corners[next] = element;
+                cornerColors[next] = solvedColors[element / sideSize];
+                next++;
+            }
+        }
     }
 
     /**
-     * Twist cube on the Z-axis.
+     * Twist a packed cube in place.
      *
-     * @param firstRow
-     *            first row which to turn ( 0 < row < size )
-     * @param direction
-     *            direction to turn, either positive or negative
+     * @param move
+     *            number of the move
      */
-    private void twistZ(int firstRow, boolean direction) {
-        // System.out.println("Twisting over Z axis, first row " + firstRow
-        // + " in positive direction: " + direction);
-
-        for (int row = firstRow; row < size; row++) {
-            for (int column = 0; column < size; column++) {
-                int topRow = inverse(row);
-                int topColumn = column;
-                int topElement = element(topRow, topColumn);
-
-                int rightRow = column;
-                int rightColumn = row;
-                int rightElement = element(rightRow, rightColumn);
-
-                int bottomRow = row;
-                int bottomColumn = inverse(column);
-                int bottomElement = element(bottomRow, bottomColumn);
-
-                int leftRow = inverse(column);
-                int leftColumn = inverse(row);
-                int leftElement = element(leftRow, leftColumn);
-
-                if (direction) {
-                    byte tmp = data[TOP][topElement];
-                    data[TOP][topElement] = data[LEFT][leftElement];
-                    data[LEFT][leftElement] = data[BOTTOM][bottomElement];
-                    data[BOTTOM][bottomElement] = data[RIGHT][rightElement];
-                    data[RIGHT][rightElement] = tmp;
-                } else {
-                    byte tmp = data[TOP][topElement];
-                    data[TOP][topElement] = data[RIGHT][rightElement];
-                    data[RIGHT][rightElement] = data[BOTTOM][bottomElement];
-                    data[BOTTOM][bottomElement] = data[LEFT][leftElement];
-                    data[LEFT][leftElement] = tmp;
-                }
+    private void twistPacked(int move) {
+        PackedTable packedTable = packedTable();
+        long word0 = packed0;
+        long word1 = packed1;
+        long word2 = packed2;
+
+        int next = twists * PackedTable.WORDS;
+        if (history == null || history.length < next + PackedTable.WORDS) {
+            long[] grown = new long[Math.max(next, 16) * 2];
+            if (history != null) {
+                System.arraycopy(history, 0, grown, 0, history.length);
             }
+            history = grown;
         }
+        history[next] = word0;
+        history[next + 1] = word1;
+        history[next + 2] = word2;
 
-        rotate(BACK, !direction);
+        packed0 = packedTable.twist(move, 0, word0, word1, word2);
+        packed1 = packedTable.twist(move, 1, word0, word1, word2);
+        packed2 = packedTable.twist(move, 2, word0, word1, word2);
+    }
 
-        // record this twist
-        twists++;
+    /**
+     * Returns the color of an element.
+     *
+     * @param index
+     *            position of the element in the data array
+     * @return the color of the element
+     */
+    private byte color(int index) {
+        if (data != null) {
+            return data[index];
+        }
+
+        PackedTable packedTable = packedTable();
+        long word;
+        switch (packedTable.word(index)) {
+        case 0:
+            word = packed0;
+            break;
+        case 1:
+            word = packed1;
+            break;
+        default:
+            word = packed2;
+            break;
+        }
+        return (byte) ((word >>> packedTable.bit(index)) & 7);
     }
 
     /**
@@ -594,12 +879,10 @@ public class Cube implements Serializable {
     private void checkIfConsistent() {
         int[] counts = new int[SIDES];
 
-        for (int side = 0; side < SIDES; side++) {
-            for (int element = 0; element < size * size; element++) {
-                int color = data[side][element];
+        for (int element = 0; element < SIDES * size * size; element++) {
+            int color = color(element);
 
-                counts[color]++;
-            }
+            counts[color]++;
         }
 
         for (int i = 0; i < SIDES; i++) {
@@ -638,7 +921,7 @@ public class Cube implements Serializable {
         // System.err.println("printing side = " + side + " row = " + row
         // + " column = " + column);
 
-        byte color = data[side][(row * size) + column];
+        byte color = color(element(side, row, column));
 
         switch (color) {
         case WHITE:
@@ -0,0 +1,612 @@
+package rubiks.bonus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A 3x3x3 rubik's cube described by its pieces ("cubies") instead of by the
+ * colors of its elements: for each corner, edge and center position which
+ * cubie is there, and for corners and edges how it is twisted or flipped.
+ *
+ * The twists of a Cube never move the corner between the TOP, LEFT and FRONT
+ * sides, so all positions are relative to that corner. Twists of the middle
+ * rows do move the centers, so unlike a "real" rubik's cube the centers are
+ * part of the state as well.
+ *
+ * Which elements make up which cubie is not hard coded, but derived from the
+ * twist permutations: elements of the same cubie are always moved by exactly
+ * the same twists.
+ *
+ * Corner orientation is the position of the TOP/BOTTOM colored element of a
+ * corner (0, 1 or 2, with the elements of all corners in the same rotational
+ * order). Edge orientation is 0 if the TOP/BOTTOM (or, for edges without that
+ * color, the FRONT/BACK) colored element of an edge is on the TOP/BOTTOM
+ * (FRONT/BACK) side, and 1 otherwise.
+ */
+public class CubieCube {
+
+    public static final int SIZE = 3;
+
+    public static final int CORNERS = 8;
+
+    public static final int EDGES = 12;
+
+    public static final int CENTERS = 6;
+
+    // number of corners which can move. The last corner never does.
+    public static final int MOVING_CORNERS = CORNERS - 1;
+
+    // number of values of the corner orientation coordinate (3^7)
+    public static final int CORNER_ORIENTATIONS = 2187;
+
+    // number of values of the edge orientation coordinate (2^11)
+    public static final int EDGE_ORIENTATIONS = 2048;
+
+    // elements of each corner position, TOP/BOTTOM element first, then in
+    // the same rotational order for all corners
+    private static final int[][] cornerElements = new int[CORNERS][];
+
+    // elements of each edge position, TOP/BOTTOM or FRONT/BACK element first
+    private static final int[][] edgeElements = new int[EDGES][];
+
+    // element of each center position
+    private static final int[] centerElements = new int[CENTERS];
+
+    // effect of each move on a solved cube
+    private static final CubieCube[] moves;
+
+    // arrangements of the centers twists can lead to (the rotations of a
+    // cube), see isSolvable()
+    private static final Set<String> centerArrangements = new HashSet<String>();
+
+    static {
+        findPositions();
+
+        moves = new CubieCube[TwistTable.moves(SIZE)];
+        for (int move = 0; move < moves.length; move++) {
+            Cube cube = new Cube(SIZE);
+            cube.twist(move);
+            moves[move] = new CubieCube(cube);
+        }
+
+        findCenterArrangements();
+    }
+
+    // cubie at each position
+    final byte[] cornerPermutation = new byte[CORNERS];
+
+    final byte[] edgePermutation = new byte[EDGES];
+
+    final byte[] centerPermutation = new byte[CENTERS];
+
+    // orientation of the cubie at each position
+    final byte[] cornerOrientation = new byte[CORNERS];
+
+    final byte[] edgeOrientation = new byte[EDGES];
+
+    /**
+     * Creates a solved cube.
+     */
+    public CubieCube() {
+        for (byte i = 0; i < CORNERS; i++) {
+            cornerPermutation[i] = i;
+        }
+        for (byte i = 0; i < EDGES; i++) {
+            edgePermutation[i] = i;
+        }
+        for (byte i = 0; i < CENTERS; i++) {
+            centerPermutation[i] = i;
+        }
+    }
+
+    /**
+     * Converts a cube of size 3 to its cubies. The colors of the sides in the
+     * solved state are taken from the corner which never moves, so this also
+     * works for cubes loaded from a file with any coloring.
+     *
+     * @param cube
+     *            cube to convert
+     */
+    public CubieCube(Cube cube) {
+        if (cube.getSize() != SIZE) {
+            throw new Error("cubies only available for cubes of size " + SIZE);
+        }
+
+        byte[] elements = cube.getElements();
+        int sideSize = SIZE * SIZE;
+
+        // color of each side when solved
+        byte[] sideColors = TwistTable.forSize(SIZE).solvedColors(elements);
+
+        for (int position = 0; position < CORNERS; position++) {
+            int[] colors = colors(elements, cornerElements[position]);
+            int cubie = find(cornerElements, colors, sideColors);
+            cornerPermutation[position] = (byte) cubie;
+
+            // orientation is where the top/bottom color ended up
+            int upDown = sideColors[cornerElements[cubie][0] / sideSize];
+            for (byte i = 0; i < 3; i++) {
+                if (colors[i] == upDown) {
+                    cornerOrientation[position] = i;
+                }
+            }
+        }
+
+        for (int position = 0; position < EDGES; position++) {
+            int[] colors = colors(elements, edgeElements[position]);
+            int cubie = find(edgeElements, colors, sideColors);
+            edgePermutation[position] = (byte) cubie;
+
+            int reference = sideColors[edgeElements[cubie][0] / sideSize];
+            edgeOrientation[position] = (byte) (colors[0] == reference ? 0 : 1);
+        }
+
+        for (int position = 0; position < CENTERS; position++) {
+            byte color = elements[centerElements[position]];
+            int cubie = -1;
+            for (int side = 0; side < CENTERS; side++) {
+                if (sideColors[side] == color) {
+                    cubie = side;
+                }
+            }
+            if (cubie == -1) {
+                throw new Error("cube not consistent!");
+            }
+            centerPermutation[position] = (byte) cubie;
+        }
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param original
+     *            original cube to copy
+     */
+    public CubieCube(CubieCube original) {
+        original.copyTo(this);
+    }
+
+    /**
+     * Copy contents of this cube into a given target.
+     *
+     * @param target
+     *            target for data of this cube.
+     */
+    public void copyTo(CubieCube target) {
+        System.arraycopy(cornerPermutation, 0, target.cornerPermutation, 0,
+                CORNERS);
+        System.arraycopy(edgePermutation, 0, target.edgePermutation, 0, EDGES);
+        System.arraycopy(centerPermutation, 0, target.centerPermutation, 0,
+                CENTERS);
+        System.arraycopy(cornerOrientation, 0, target.cornerOrientation, 0,
+                CORNERS);
+        System.arraycopy(edgeOrientation, 0, target.edgeOrientation, 0, EDGES);
+    }
+
+    /**
+     * Returns the effect of a move on a solved cube.
+     *
+     * @param move
+     *            number of the move, see TwistTable
+     * @return the move as a cubie cube. Should not be modified
+     */
+    static CubieCube move(int move) {
+        return moves[move];
+    }
+
+    /**
+     * Twist this cube in place.
+     *
+     * @param move
+     *            number of the move, see TwistTable
+     */
+    public void twist(int move) {
+        multiply(moves[move]);
+    }
+
+    /**
+     * Applies the given cube to this one, as if all twists which produced the
+     * other cube were done on this cube.
+     *
+     * @param other
+     *            cube to apply
+     */
+    public void multiply(CubieCube other) {
+        byte[] corners = new byte[CORNERS];
+        byte[] cornerTwists = new byte[CORNERS];
+        byte[] edges = new byte[EDGES];
+        byte[] edgeFlips = new byte[EDGES];
+        byte[] centers = new byte[CENTERS];
+
+        for (int i = 0; i < CORNERS; i++) {
+            int from = other.cornerPermutation[i];
+            corners[i] = cornerPermutation[from];
+            cornerTwists[i] = (byte) ((cornerOrientation[from] + other.cornerOrientation[i]) % 3);
+        }
+        for (int i = 0; i < EDGES; i++) {
+            int from = other.edgePermutation[i];
+            edges[i] = edgePermutation[from];
+            edgeFlips[i] = (byte) (edgeOrientation[from] ^ other.edgeOrientation[i]);
+        }
+        for (int i = 0; i < CENTERS; i++) {
+            centers[i] = centerPermutation[other.centerPermutation[i]];
+        }
+
+        System.arraycopy(corners, 0, cornerPermutation, 0, CORNERS);
+        System.arraycopy(cornerTwists, 0, cornerOrientation, 0, CORNERS);
+        System.arraycopy(edges, 0, edgePermutation, 0, EDGES);
+        System.arraycopy(edgeFlips, 0, edgeOrientation, 0, EDGES);
+        System.arraycopy(centers, 0, centerPermutation, 0, CENTERS);
+    }
+
+    /**
+     * Returns if this cube is solved or not.
+     *
+     * @return true if solved, false if not
+     */
+    public boolean isSolved() {
+        for (int i = 0; i < CORNERS; i++) {
+            if (cornerPermutation[i] != i || cornerOrientation[i] != 0) {
+                return false;
+            }
+        }
+        for (int i = 0; i < EDGES; i++) {
+            if (edgePermutation[i] != i || edgeOrientation[i] != 0) {
+                return false;
+            }
+        }
+        for (int i = 0; i < CENTERS; i++) {
+            if (centerPermutation[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns if twists can lead to this cube, so it can be solved: every
+     * cubie is there exactly once, the centers are arranged as twists can
+     * arrange them, the corner orientations add up to a multiple of 3, the
+     * number of flipped edges is even, and the permutations of the corners,
+     * edges and centers are even together. Every twist keeps all of these.
+     *
+     * @return true if the cube can be solved, false if not
+     */
+    public boolean isSolvable() {
+        if (!isPermutation(cornerPermutation)
+                || !isPermutation(edgePermutation)
+                || !centerArrangements.contains(Arrays
+                        .toString(centerPermutation))) {
+            return false;
+        }
+
+        int cornerTwist = 0;
+        for (int i = 0; i < CORNERS; i++) {
+            cornerTwist += cornerOrientation[i];
+        }
+
+        int edgeFlip = 0;
+        for (int i = 0; i < EDGES; i++) {
+            edgeFlip += edgeOrientation[i];
+        }
+
+        int parity = parity(cornerPermutation) ^ parity(edgePermutation)
+                ^ parity(centerPermutation);
+
+        return cornerTwist % 3 == 0 && edgeFlip % 2 == 0 && parity == 0;
+    }
+
+    /**
+     * Corner orientation coordinate: the orientations of the moving corners
+     * as a number in base 3.
+     *
+     * @return the corner orientation coordinate ( 0 <= result < 2187 )
+     */
+    public int getCornerOrientation() {
+        int result = 0;
+        for (int i = MOVING_CORNERS - 1; i >= 0; i--) {
+            result = (result * 3) + cornerOrientation[i];
+        }
+        return result;
+    }
+
+    /**
+     * Sets the orientation of all corners from a corner orientation
+     * coordinate.
+     *
+     * @param coordinate
+     *            corner orientation coordinate
+     */
+    public void setCornerOrientation(int coordinate) {
+        for (int i = 0; i < MOVING_CORNERS; i++) {
+            cornerOrientation[i] = (byte) (coordinate % 3);
+            coordinate /= 3;
+        }
+        cornerOrientation[MOVING_CORNERS] = 0;
+    }
+
+    /**
+     * Edge orientation coordinate: the orientations of all but the last edge
+     * as a binary number. The last edge follows from the others, as the number
+     * of flipped edges is always even.
+     *
+     * @return the edge orientation coordinate ( 0 <= result < 2048 )
+     */
+    public int getEdgeOrientation() {
+        int result = 0;
+        for (int i = EDGES - 2; i >= 0; i--) {
+            result = (result * 2) + edgeOrientation[i];
+        }
+        return result;
+    }
+
+    /**
+     * Sets the orientation of all edges from an edge orientation coordinate.
+     *
+     * @param coordinate
+     *            edge orientation coordinate
+     */
+    public void setEdgeOrientation(int coordinate) {
+        int parity = 0;
+        for (int i = 0; i < EDGES - 1; i++) {
+            edgeOrientation[i] = (byte) (coordinate % 2);
+            parity ^= edgeOrientation[i];
+            coordinate /= 2;
+        }
+        edgeOrientation[EDGES - 1] = (byte) parity;
+    }
+
+    public String toString() {
+        return "corners " + Arrays.toString(cornerPermutation) + " "
+                + Arrays.toString(cornerOrientation) + ", edges "
+                + Arrays.toString(edgePermutation) + " "
+                + Arrays.toString(edgeOrientation) + ", centers "
+                + Arrays.toString(centerPermutation);
+    }
+
+    // *** Only private functions ahead ***\\
+
+    private static boolean isPermutation(byte[] permutation) {
+        boolean[] seen = new boolean[permutation.length];
+        for (byte cubie : permutation) {
+            if (seen[cubie]) {
+                return false;
+            }
+            seen[cubie] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Parity of a permutation: 0 if even, 1 if odd.
+     */
+    private static int parity(byte[] permutation) {
+        int result = 0;
+        for (int i = 0; i < permutation.length; i++) {
+            for (int j = i + 1; j < permutation.length; j++) {
+                if (permutation[i] > permutation[j]) {
+                    result ^= 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int[] colors(byte[] elements, int[] positionElements) {
+        int[] result = new int[positionElements.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = elements[positionElements[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Find the cubie with the given colors.
+     *
+     * @return the (solved) position of the cubie
+     */
+    private static int find(int[][] positions, int[] colors,
+            byte[] sideColors) {
+        int sideSize = SIZE * SIZE;
+
+        for (int cubie = 0; cubie < positions.length; cubie++) {
+            boolean match = true;
+            for (int element : positions[cubie]) {
+                boolean found = false;
+                for (int color : colors) {
+                    if (color == sideColors[element / sideSize]) {
+                        found = true;
+                    }
+                }
+                match &= found;
+            }
+            if (match) {
+                return cubie;
+            }
+        }
+        throw new Error("cube not consistent!");
+    }
+
+    /**
+     * Finds all arrangements of the centers, by doing every move on every
+     * arrangement found until no new ones turn up.
+     */
+    private static void findCenterArrangements() {
+        LinkedList<CubieCube> queue = new LinkedList<CubieCube>();
+        queue.add(new CubieCube());
+        centerArrangements.add(Arrays.toString(queue.getFirst().centerPermutation));
+
+        while (!queue.isEmpty()) {
+            CubieCube arrangement = queue.removeFirst();
+            for (int move = 0; move < moves.length; move++) {
+                CubieCube next = new CubieCube(arrangement);
+                next.twist(move);
+                if (centerArrangements.add(Arrays
+                        .toString(next.centerPermutation))) {
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private static boolean isUpDown(int element) {
+        int side = element / (SIZE * SIZE);
+        return side == Cube.TOP || side == Cube.BOTTOM;
+    }
+
+    private static boolean isFrontBack(int element) {
+        int side = element / (SIZE * SIZE);
+        return side == Cube.FRONT || side == Cube.BACK;
+    }
+
+    /**
+     * Groups the elements into corner, edge and center positions, using the
+     * fact that elements of the same cubie are moved by exactly the same
+     * twists. Then orders the elements of each position.
+     */
+    private static void findPositions() {
+        TwistTable table = TwistTable.forSize(SIZE);
+        int elements = Cube.SIDES * SIZE * SIZE;
+        int moveCount = TwistTable.moves(SIZE);
+
+        // for each element: the twists which move it, and where to
+        int[] signature = new int[elements];
+        int[][] target = new int[moveCount][elements];
+        for (int move = 0; move < moveCount; move++) {
+            int[] permutation = table.permutation(move);
+            for (int element = 0; element < elements; element++) {
+                target[move][permutation[element]] = element;
+                if (permutation[element] != element) {
+                    signature[element] |= 1 << move;
+                }
+            }
+        }
+
+        List<int[]> corners = new ArrayList<int[]>();
+        List<int[]> edges = new ArrayList<int[]>();
+        int centers = 0;
+        int[] fixedCorner = null;
+
+        for (int element = 0; element < elements; element++) {
+            int inSide = element % (SIZE * SIZE);
+            int row = inSide / SIZE;
+            int column = inSide % SIZE;
+            boolean rowEdge = row == 0 || row == SIZE - 1;
+            boolean columnEdge = column == 0 || column == SIZE - 1;
+
+            if (!rowEdge && !columnEdge) {
+                centerElements[centers++] = element;
+                continue;
+            }
+
+            // only handle each cubie from its first element
+            List<Integer> group = new ArrayList<Integer>();
+            for (int other = 0; other < elements; other++) {
+                int otherInSide = other % (SIZE * SIZE);
+                boolean otherCorner = (otherInSide / SIZE != 1)
+                        && (otherInSide % SIZE != 1);
+                if (signature[other] == signature[element]
+                        && otherCorner == (rowEdge && columnEdge)
+                        && otherInSide != SIZE * SIZE / 2) {
+                    group.add(other);
+                }
+            }
+            if (group.get(0) != element) {
+                continue;
+            }
+
+            int[] position = new int[group.size()];
+            for (int i = 0; i < position.length; i++) {
+                position[i] = group.get(i);
+            }
+
+            if (rowEdge && columnEdge) {
+                if (position.length != 3) {
+                    throw new Error("could not determine corner cubies");
+                }
+                if (signature[element] == 0) {
+                    fixedCorner = position;
+                } else {
+                    corners.add(position);
+                }
+            } else {
+                if (position.length != 2) {
+                    throw new Error("could not determine edge cubies");
+                }
+                // put the reference element first
+                if (!isUpDown(position[0])
+                        && (isUpDown(position[1]) || !isFrontBack(position[0]))) {
+                    position = new int[] { position[1], position[0] };
+                }
+                edges.add(position);
+            }
+        }
+
+        if (fixedCorner == null || corners.size() != MOVING_CORNERS
+                || edges.size() != EDGES || centers != CENTERS) {
+            throw new Error("could not determine cubies");
+        }
+        corners.add(upDownFirst(fixedCorner));
+
+        // order the elements of each corner. Twists are rotations, so
+        // following the twists from a single corner gives all other corners
+        // the same rotational order.
+        int[][] ordered = new int[CORNERS][];
+        ordered[0] = upDownFirst(corners.get(0));
+        ordered[MOVING_CORNERS] = corners.get(MOVING_CORNERS);
+        LinkedList<Integer> todo = new LinkedList<Integer>();
+        todo.add(0);
+        while (!todo.isEmpty()) {
+            int[] from = ordered[todo.removeFirst()];
+            for (int move = 0; move < moveCount; move++) {
+                int[] to = upDownFirst(new int[] { target[move][from[0]],
+                        target[move][from[1]], target[move][from[2]] });
+                int index = indexOf(corners, to[0]);
+
+                if (ordered[index] == null) {
+                    ordered[index] = to;
+                    todo.add(index);
+                } else if (!Arrays.equals(ordered[index], to)) {
+                    throw new Error("inconsistent corner orientation");
+                }
+            }
+        }
+
+        for (int i = 0; i < CORNERS; i++) {
+            cornerElements[i] = ordered[i];
+        }
+        for (int i = 0; i < EDGES; i++) {
+            edgeElements[i] = edges.get(i);
+        }
+    }
+
+    /**
+     * Rotates the elements of a corner so the TOP/BOTTOM element is first.
+     */
+    private static int[] upDownFirst(int[] corner) {
+        int[] result = corner.clone();
+        while (!isUpDown(result[0])) {
+            int first = result[0];
+            result[0] = result[1];
+            result[1] = result[2];
+            result[2] = first;
+        }
+        return result;
+    }
+
+    private static int indexOf(List<int[]> positions, int element) {
+        for (int i = 0; i < positions.size(); i++) {
+            for (int other : positions.get(i)) {
+                if (other == element) {
+                    return i;
+                }
+            }
+        }
+        throw new Error("unknown element " + element);
+    }
+
+}
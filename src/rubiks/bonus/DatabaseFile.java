@@ -0,0 +1,237 @@
+package rubiks.bonus;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Files holding the tables of the pattern databases. A table is written once
+ * and memory mapped read only afterwards, so all solvers on a machine share
+ * the same pages of the file.
+ *
+ * A file starts with a header: a magic number, the version of the format, the
+ * name of the table (as a hash), the size of the cube, the length of the data
+ * and a CRC32 checksum of the data. A file is only used if all of these match,
+ * otherwise the table is built again. A table which is wrong would make the
+ * search miss solutions, or count them wrong, without any warning.
+ *
+ * The files are kept in a cache directory of the user (see directory()), not
+ * in the temporary directory, which anyone can write to.
+ */
+final class DatabaseFile {
+
+    // system property with the directory of the database files
+    static final String DIRECTORY_PROPERTY = "rubiks.cache";
+
+    private static final long MAGIC = 0x5255424B53444221L; // "RUBKSDB!"
+
+    // increase when the layout of a file or of any table changes
+    private static final int VERSION = 1;
+
+    // magic, version, name, size, length and checksum
+    private static final int HEADER_SIZE = 8 + 4 + 4 + 4 + 8 + 8;
+
+    private DatabaseFile() {
+        // only static functions
+    }
+
+    /**
+     * Directory of the database files. Can be set with DIRECTORY_PROPERTY,
+     * otherwise it is "rubiks" in the cache directory of the user
+     * ($XDG_CACHE_HOME, or ~/.cache). Created if it does not exist yet,
+     * readable by the user only.
+     *
+     * @return the directory of the database files
+     * @throws IOException
+     *             if the directory cannot be created
+     */
+    static File directory() throws IOException {
+        String name = System.getProperty(DIRECTORY_PROPERTY);
+        File result;
+        if (name != null) {
+            result = new File(name);
+        } else {
+            String cache = System.getenv("XDG_CACHE_HOME");
+            if (cache == null || cache.length() == 0) {
+                cache = new File(System.getProperty("user.home"), ".cache")
+                        .getPath();
+            }
+            result = new File(cache, "rubiks");
+        }
+
+        if (!result.isDirectory()) {
+            if (!result.mkdirs() && !result.isDirectory()) {
+                throw new IOException("cannot create " + result);
+            }
+            result.setReadable(false, false);
+            result.setWritable(false, false);
+            result.setExecutable(false, false);
+            result.setReadable(true, true);
+            result.setWritable(true, true);
+            result.setExecutable(true, true);
+        }
+        return result;
+    }
+
+    /**
+     * Name of a database file. Can be set with a system property, otherwise
+     * the file is in the cache directory, see directory().
+     *
+     * @param property
+     *            system property with the name of the file
+     * @param name
+     *            default name of the file
+     * @return the database file
+     * @throws IOException
+     *             if the cache directory cannot be created
+     */
+    static File file(String property, String name) throws IOException {
+        String fileName = System.getProperty(property);
+        if (fileName == null) {
+            return new File(directory(), name);
+        }
+        return new File(fileName);
+    }
+
+    /**
+     * Memory maps the data of a database file, after checking its header.
+     *
+     * @param file
+     *            the database file
+     * @param name
+     *            name of the table in the file
+     * @param size
+     *            size of the cubes of the table
+     * @param length
+     *            expected length of the data, or -1 for any length
+     * @return the data of the file, or null if the file does not exist, or
+     *         does not hold this table (see class comment)
+     * @throws IOException
+     *             in case the file cannot be read
+     */
+    static MappedByteBuffer map(File file, String name, int size, long length)
+            throws IOException {
+        if (!file.exists() || file.length() < HEADER_SIZE
+                || (length >= 0 && file.length() != HEADER_SIZE + length)) {
+            return null;
+        }
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete
+            }
+            header.flip();
+
+            if (header.remaining() < HEADER_SIZE
+                    || header.getLong() != MAGIC
+                    || header.getInt() != VERSION
+                    || header.getInt() != name.hashCode()
+                    || header.getInt() != size) {
+                return null;
+            }
+            long dataLength = header.getLong();
+            long checksum = header.getLong();
+            if (dataLength != file.length() - HEADER_SIZE) {
+                return null;
+            }
+
+            MappedByteBuffer result = channel.map(
+                    FileChannel.MapMode.READ_ONLY, HEADER_SIZE, dataLength);
+            if (checksum(result.duplicate()) != checksum) {
+                return null;
+            }
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a database file, with its header. The file is written to a
+     * temporary file first, so other processes never see a half written
+     * database.
+     *
+     * @param file
+     *            the database file
+     * @param name
+     *            name of the table in the file
+     * @param size
+     *            size of the cubes of the table
+     * @param data
+     *            contents of the table
+     * @throws IOException
+     *             in case the file cannot be written
+     */
+    static void write(File file, String name, int size, byte[] data)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(name.hashCode());
+        header.putInt(size);
+        header.putLong(data.length);
+        header.putLong(checksum(ByteBuffer.wrap(data)));
+
+        File temporary = File.createTempFile(file.getName(), ".tmp", file
+                .getAbsoluteFile().getParentFile());
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            out.write(header.array());
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            if (!file.exists()) {
+                throw new IOException("cannot create " + file);
+            }
+        }
+    }
+
+    /**
+     * Packs distances of at most 14 into 4 bits each, two per byte.
+     *
+     * @param distances
+     *            one distance per byte
+     * @return the packed distances
+     */
+    static byte[] pack(byte[] distances) {
+        byte[] result = new byte[(distances.length + 1) / 2];
+        for (int index = 0; index < distances.length; index++) {
+            result[index >> 1] |= distances[index] << ((index & 1) * 4);
+        }
+        return result;
+    }
+
+    /**
+     * Reads a single packed distance.
+     *
+     * @param buffer
+     *            packed distances
+     * @param index
+     *            index of the distance
+     * @return the distance
+     */
+    static int distance(MappedByteBuffer buffer, int index) {
+        int pair = buffer.get(index >> 1);
+        return ((index & 1) == 0) ? pair & 15 : (pair >> 4) & 15;
+    }
+
+    // *** Only private functions ahead ***\\
+
+    private static long checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+}
@@ -0,0 +1,373 @@
+package rubiks.bonus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pattern databases of the edges of a 3x3x3 cube. The twelve edges are split
+ * into two groups of six. For every arrangement of the edges of a group, a
+ * database gives the number of twists needed to solve these edges alone.
+ *
+ * The twists of the middle rows move edges of both groups at once, so the
+ * distances of the groups cannot be added. The largest of the two distances
+ * and the corner distance (see CornerDatabase) is the lower bound used.
+ *
+ * An arrangement of a group is a single coordinate: the positions of its six
+ * edges (12 * 11 * 10 * 9 * 8 * 7 possibilities), times the orientation of
+ * each of these edges (2^6 possibilities). Both groups use the same move
+ * table, only their solved coordinate differs.
+ *
+ * Distances are stored as 4 bit values in a file per group (see
+ * FILE_PROPERTY and DatabaseFile), which is built on first use and memory
+ * mapped afterwards.
+ */
+final class EdgeDatabase {
+
+    // prefix of the system properties with the names of the database files,
+    // followed by the group: rubiks.edges.0 and rubiks.edges.1
+    static final String FILE_PROPERTY = "rubiks.edges";
+
+    // the only cube size which has single element edges
+    static final int SIZE = 3;
+
+    static final int EDGES = 12;
+
+    static final int GROUPS = 2;
+
+    // edges per group
+    static final int GROUP = EDGES / GROUPS;
+
+    static final int POSITIONS = 665280; // 12! / 6!
+
+    static final int ORIENTATIONS = 64; // 2^6
+
+    static final int STATES = POSITIONS * ORIENTATIONS;
+
+    private static final int UNKNOWN = 15;
+
+    private static EdgeDatabase instance = null;
+
+    private final int moves;
+
+    // for each move, the new position of each edge position, and if the two
+    // elements of the edge are swapped
+    private final int[][] targets;
+
+    private final int[][] flips;
+
+    // positions of the edges of each position coordinate, stored as
+    // [coordinate * GROUP + edge]
+    private final byte[] positions;
+
+    // new position coordinate for each (coordinate, move) pair, stored as
+    // [coordinate * moves + move]
+    private final int[] positionMoves;
+
+    // elements of each edge, in the order of their home position
+    private final int[][] edges;
+
+    private final MappedByteBuffer[] distances;
+
+    /**
+     * Returns if the edge databases can be used for cubes of a given size.
+     *
+     * @param size
+     *            size of the cube
+     * @return true if cubes of this size have edge databases
+     */
+    static boolean supports(int size) {
+        return size == SIZE;
+    }
+
+    /**
+     * Returns the databases, building or loading them on first use.
+     *
+     * @return the edge pattern databases
+     */
+    static synchronized EdgeDatabase get() {
+        if (instance == null) {
+            try {
+                instance = new EdgeDatabase();
+            } catch (IOException e) {
+                throw new Error("cannot load edge database: " + e);
+            }
+        }
+        return instance;
+    }
+
+    private EdgeDatabase() throws IOException {
+        TwistTable table = TwistTable.forSize(SIZE);
+        moves = TwistTable.moves(SIZE);
+        edges = findEdges(table);
+
+        // position and index within that position of each edge element
+        int[] edgeOf = new int[Cube.SIDES * SIZE * SIZE];
+        int[] indexOf = new int[Cube.SIDES * SIZE * SIZE];
+        for (int position = 0; position < EDGES; position++) {
+            for (int i = 0; i < 2; i++) {
+                edgeOf[edges[position][i]] = position;
+                indexOf[edges[position][i]] = i;
+            }
+        }
+
+        targets = new int[moves][EDGES];
+        flips = new int[moves][EDGES];
+        for (int move = 0; move < moves; move++) {
+            int[] permutation = table.permutation(move);
+            for (int position = 0; position < EDGES; position++) {
+                for (int i = 0; i < 2; i++) {
+                    int to = edges[position][i];
+                    int from = permutation[to];
+                    targets[move][edgeOf[from]] = position;
+                    flips[move][edgeOf[from]] = indexOf[from] ^ i;
+                }
+            }
+        }
+
+        positions = new byte[POSITIONS * GROUP];
+        positionMoves = new int[POSITIONS * moves];
+        int[] before = new int[GROUP];
+        int[] after = new int[GROUP];
+        for (int coordinate = 0; coordinate < POSITIONS; coordinate++) {
+            unrank(coordinate, before);
+            for (int edge = 0; edge < GROUP; edge++) {
+                positions[(coordinate * GROUP) + edge] = (byte) before[edge];
+            }
+            for (int move = 0; move < moves; move++) {
+                for (int edge = 0; edge < GROUP; edge++) {
+                    after[edge] = targets[move][before[edge]];
+                }
+                positionMoves[(coordinate * moves) + move] = rank(after);
+            }
+        }
+
+        distances = new MappedByteBuffer[GROUPS];
+        long length = (STATES + 1) / 2;
+        for (int group = 0; group < GROUPS; group++) {
+            File file = DatabaseFile.file(FILE_PROPERTY + "." + group,
+                    "rubiks-edges-" + group + ".db");
+
+            String name = "edges-" + group;
+            MappedByteBuffer mapped = DatabaseFile.map(file, name, 3, length);
+            if (mapped == null) {
+                DatabaseFile.write(file, name, 3, DatabaseFile
+                        .pack(buildDistances(group)));
+                mapped = DatabaseFile.map(file, name, 3, length);
+            }
+            distances[group] = mapped;
+        }
+    }
+
+    /**
+     * Coordinate of a group after a move.
+     *
+     * @param coordinate
+     *            coordinate of a group before the move
+     * @param move
+     *            number of the move, see TwistTable
+     * @return coordinate of the group after the move
+     */
+    int move(int coordinate, int move) {
+        int position = coordinate / ORIENTATIONS;
+        int orientation = coordinate % ORIENTATIONS;
+        int[] flips = this.flips[move];
+
+        int first = position * GROUP;
+        for (int edge = 0; edge < GROUP; edge++) {
+            orientation ^= flips[positions[first + edge]] << edge;
+        }
+
+        return (positionMoves[(position * moves) + move] * ORIENTATIONS)
+                + orientation;
+    }
+
+    /**
+     * Minimum number of twists needed to solve the edges of a group.
+     *
+     * @param group
+     *            group of edges
+     * @param coordinate
+     *            coordinate of the group
+     * @return lower bound on the twists needed to solve the cube
+     */
+    int distance(int group, int coordinate) {
+        return DatabaseFile.distance(distances[group], coordinate);
+    }
+
+    /**
+     * Coordinate of a group of edges of a cube.
+     *
+     * @param group
+     *            group of edges
+     * @param cube
+     *            cube of size SIZE
+     * @return coordinate of the group
+     */
+    int coordinate(int group, Cube cube) {
+        int sideSize = SIZE * SIZE;
+        byte[] elements = cube.getElements();
+        byte[] solvedColors = TwistTable.forSize(SIZE).solvedColors(elements);
+
+        int[] position = new int[GROUP];
+        int orientation = 0;
+
+        for (int at = 0; at < EDGES; at++) {
+            byte first = elements[edges[at][0]];
+            byte second = elements[edges[at][1]];
+            boolean found = false;
+
+            for (int edge = 0; edge < EDGES && !found; edge++) {
+                byte home = solvedColors[edges[edge][0] / sideSize];
+                byte other = solvedColors[edges[edge][1] / sideSize];
+
+                if ((first == home && second == other)
+                        || (first == other && second == home)) {
+                    found = true;
+                    int member = edge - (group * GROUP);
+                    if (member >= 0 && member < GROUP) {
+                        position[member] = at;
+                        if (first != home) {
+                            orientation |= 1 << member;
+                        }
+                    }
+                }
+            }
+
+            if (!found) {
+                throw new Error("cube not consistent!");
+            }
+        }
+
+        return (rank(position) * ORIENTATIONS) + orientation;
+    }
+
+    // *** Only private functions ahead ***\\
+
+    /**
+     * Groups the edge elements of all sides into edge cubies: elements of the
+     * same cubie are moved by exactly the same twists.
+     */
+    private static int[][] findEdges(TwistTable table) {
+        int sideSize = SIZE * SIZE;
+        int[] signatures = new int[Cube.SIDES * sideSize];
+        for (Cube.Axis axis : Cube.Axis.values()) {
+            for (int row = 1; row < SIZE; row++) {
+                int[] moved = table.permutation(TwistTable.move(SIZE, axis,
+                        row, true));
+                for (int element = 0; element < signatures.length; element++) {
+                    if (moved[element] != element) {
+                        signatures[element] |= 1 << ((axis.ordinal() * SIZE) + row);
+                    }
+                }
+            }
+        }
+
+        // elements in the middle of a border of a side
+        int[] elements = { 1, SIZE, (SIZE * 2) - 1, (SIZE * SIZE) - 2 };
+
+        int[][] result = new int[EDGES][];
+        int next = 0;
+        for (int index = 0; index < signatures.length; index++) {
+            if (Arrays.binarySearch(elements, index % sideSize) < 0) {
+                continue;
+            }
+            for (int other = index + 1; other < signatures.length; other++) {
+                if (signatures[other] == signatures[index]
+                        && Arrays.binarySearch(elements, other % sideSize) >= 0) {
+                    if (next == EDGES) {
+                        throw new Error("could not determine edge cubies");
+                    }
+                    result[next++] = new int[] { index, other };
+                }
+            }
+        }
+
+        if (next != EDGES) {
+            throw new Error("could not determine edge cubies");
+        }
+        return result;
+    }
+
+    /**
+     * Breadth first search from the solved cube over all arrangements of a
+     * group.
+     *
+     * @return distances of all arrangements
+     */
+    private byte[] buildDistances(int group) {
+        byte[] distance = new byte[STATES];
+        Arrays.fill(distance, (byte) UNKNOWN);
+
+        int[] solved = new int[GROUP];
+        for (int edge = 0; edge < GROUP; edge++) {
+            solved[edge] = (group * GROUP) + edge;
+        }
+        distance[rank(solved) * ORIENTATIONS] = 0;
+
+        boolean changed = true;
+        for (int depth = 0; changed; depth++) {
+            changed = false;
+
+            for (int index = 0; index < STATES; index++) {
+                if (distance[index] != depth) {
+                    continue;
+                }
+
+                for (int move = 0; move < moves; move++) {
+                    int next = move(index, move);
+                    if (distance[next] == UNKNOWN) {
+                        if (depth + 1 >= UNKNOWN) {
+                            throw new Error(
+                                    "edge distance does not fit in 4 bits");
+                        }
+                        distance[next] = (byte) (depth + 1);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return distance;
+    }
+
+    // rank of the (distinct) positions of the edges of a group
+    private static int rank(int[] position) {
+        int result = 0;
+        for (int i = 0; i < GROUP; i++) {
+            int smaller = 0;
+            for (int j = 0; j < i; j++) {
+                if (position[j] < position[i]) {
+                    smaller++;
+                }
+            }
+            result = (result * (EDGES - i)) + position[i] - smaller;
+        }
+        return result;
+    }
+
+    private static void unrank(int rank, int[] position) {
+        int[] code = new int[GROUP];
+        for (int i = GROUP - 1; i >= 0; i--) {
+            code[i] = rank % (EDGES - i);
+            rank /= EDGES - i;
+        }
+
+        boolean[] used = new boolean[EDGES];
+        for (int i = 0; i < GROUP; i++) {
+            int skip = code[i];
+            for (int at = 0; at < EDGES; at++) {
+                if (!used[at]) {
+                    if (skip == 0) {
+                        position[i] = at;
+                        used[at] = true;
+                        break;
+                    }
+                    skip--;
+                }
+            }
+        }
+    }
+
+}
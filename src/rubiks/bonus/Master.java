@@ -14,7 +14,8 @@ package rubiks.bonus;
 import ibis.ipl.*;
 import java.util.LinkedList;
 import java.io.IOException;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
 
 public class Master {
@@ -30,19 +31,22 @@ public class Master {
     int remainingCubes, cubesPerNode;
     int slvMaster;
     IbisIdentifier myself;
-    CubeCache initCache;
+    CubeArena initArena;
     //signals for termination / continuation
     static final int TERMINATE = 1;
     static final int CONTINUE = 0;
+    //sent during a bound with --first, as soon as a solution is found
+    static final int CANCEL = 2;
+    boolean cancelSent = false;
+    //jobs wanted per thread when the split depth is estimated (--estimate)
+    static final int JOBS_PER_THREAD = 8;
     IbisIdentifier[] ibisesInPool;
 
-    /*Cubes meant for workers are place here*/
-    LinkedList<Cube> workQueue;
-    /*Cubes that the master will solve go here*/
-    LinkedList<Cube> localQueue;
+    /*Jobs of all nodes are placed here, the master solves jobs wStart to wEnd*/
+    CubeStore workQueue;
 
-    LinkedBlockingQueue<Cube> threadQueue;
-    private static masterThread[] threads;
+    /*Solutions found in the current bound, by the threads of all nodes*/
+    LongAdder found;
 
     /*Ports for master*/
     SendPort    sendInfoPort; //Broadcast port
@@ -57,9 +61,6 @@ public class Master {
         myself = mServer;
         slvMaster = masterDepth;
         /*Init variables/datastructures*/
-        workQueue = new LinkedList<Cube>();
-        localQueue = new LinkedList<Cube>();
-        threadQueue = new LinkedBlockingQueue<Cube>();
         /*Init ports and enable connections*/
         sendInfoPort = Node.ibis.createSendPort(Node.broadcastPort);
         sendCubePort = Node.ibis.createSendPort(Node.workPort);
@@ -74,8 +75,6 @@ public class Master {
         Node.reg.waitUntilPoolClosed(); //Wait for all nodes to join
         ibisesInPool = Node.reg.joinedIbises();
         Node.numNodes = ibisesInPool.length; // get the number of nodes
-        initCache = new CubeCache(Node.initCube.getSize());
-        threads = new masterThread[Node.numThreads];
 
 
         /*Connect to all workers*/
@@ -105,9 +104,19 @@ public class Master {
 
         /*Start timing here*/
         startTime = System.currentTimeMillis();
-        /*Generate Cubes from initial cube at Master. Depth=2*/
-        workQueue = Rubiks.solveAtMaster(Node.initCube, initCache, slvMaster);
+        /*Generate Cubes from initial cube at Master. Depth=2, or deep enough
+         *for several jobs per thread with --estimate*/
+        slvMaster = Rubiks.splitDepth(JOBS_PER_THREAD * Node.numNodes * Node.numThreads);
+        initArena = new CubeArena(Node.initCube.getSize(), slvMaster);
+        workQueue = Rubiks.solveAtMaster(Node.initCube, initArena, slvMaster);
         workCubes = Rubiks.getWorkItems();
+        /*Solved within the split depth: the master counted the solutions
+         *itself and there are no jobs. The first bound searched is the one
+         *of these solutions, which ends the search right away*/
+        if (Rubiks.getMasterSolutions() > 0){
+            Node.solutions = Rubiks.getMasterSolutions();
+            slvMaster = Rubiks.getMasterSteps() - 1;
+        }
 
 
         /*Inform workers of the groups size*/
@@ -115,9 +124,12 @@ public class Master {
         nodes_msg.writeInt(Node.numNodes);
         nodes_msg.finish();
 
-        /*Send the workQueue to the workers*/
+        /*Send the workQueue to the workers, only the moves of each job*/
+        byte[] jobData = workQueue.toArray();
         WriteMessage q_msg = sendCubePort.newMessage();
-        q_msg.writeObject(workQueue);
+        q_msg.writeInt(workQueue.getDepth());
+        q_msg.writeInt(jobData.length);
+        q_msg.writeArray(jobData);
         q_msg.finish();
 
         /*Figure out which cubes will be assigned to which nodes*/
@@ -138,44 +150,44 @@ public class Master {
             }
         }
 
-        for (int w = wStart; w <= wEnd; w++){
-            localQueue.add(workQueue.get(w));
-        }
-
         Node.bound = slvMaster;
 
         
 
         while(true){
 
-            threadQueue.addAll(localQueue);
+            found = new LongAdder();
             Node.bound++;
             System.out.print(" " + Node.bound);
-
-            for (int t = 0; t < Node.numThreads; t++){
-                threads[t] = new masterThread();
-                threads[t].start();
+            Rubiks.predict(Node.bound);
+            long boundStart = System.currentTimeMillis();
+
+            /*With --first, solutions of the workers are received during the
+             *search, so the first solution found stops all nodes at once*/
+            solutionThread receiver = null;
+            if (Rubiks.isFirst()){
+                receiver = new solutionThread();
+                receiver.start();
             }
 
-            for (int t = 0; t < Node.numThreads; t++){
-                try {
-                    threads[t].join();
-                } catch (InterruptedException e){
-                    e.printStackTrace();    
-                }
-            }
+            /*Solve the local cubes on the threads of this node*/
+            Node.pool.invoke(new roundTask());
 
 
             /*Check if any of the workers found a solution*/
-            for (int n = 0; n < Node.numNodes; n++){
-                if (!ibisesInPool[n].equals(myself)){
-                    ReadMessage sol_msg = recvSolutionPort.receive();
-                    int workerSolution = sol_msg.readInt();
-                    sol_msg.finish();
-                    Node.solutions += workerSolution;
+            if (receiver == null){
+                receiveSolutions();
+            } else {
+                try {
+                    receiver.join();
+                } catch (InterruptedException e){
+                    e.printStackTrace();
                 }
             }
 
+            Rubiks.searched(Node.bound, System.currentTimeMillis() - boundStart);
+            Node.solutions += found.intValue();
+
             /*If solutions are found, inform workers to stop*/
             if(Node.solutions !=0){
                 WriteMessage term_msg = sendInfoPort.newMessage();
@@ -194,8 +206,12 @@ public class Master {
         endTime = System.currentTimeMillis();
         elapsedTime = endTime - startTime;
         System.out.println();
-        System.out.println("Solving cube possible in " + Node.solutions + " ways of "
-                + Node.bound + " steps");
+        if (Rubiks.isFirst()){
+            System.out.println("Solving cube possible in " + Node.bound + " steps");
+        } else {
+            System.out.println("Solving cube possible in " + Node.solutions + " ways of "
+                    + Node.bound + " steps");
+        }
         sendInfoPort.close();
         recvSolutionPort.close();
         return elapsedTime;
@@ -203,35 +219,82 @@ public class Master {
 
 
 
-/*Thread routine*/
-public class masterThread extends Thread {
+/*Task searching all local jobs of a bound. The jobs are pushed on the deque
+ *of a single thread, the other threads steal them from there*/
+public class roundTask extends RecursiveAction {
 
-    public void run(){
-        while(true){
-            int res = 0;
-            Cube currCube = null;
+    private static final long serialVersionUID = 1L;
 
-            if (threadQueue.isEmpty()){
-                return;
-            }
+    protected void compute(){
+        LinkedList<cubeTask> tasks = new LinkedList<cubeTask>();
+        for (int job = wStart; job <= wEnd; job++){
+            tasks.add(new cubeTask(job));
+        }
+        invokeAll(tasks);
+    }
 
-            currCube = threadQueue.poll();
+}
+
+/*Task searching a single job. Splits its search when other threads run
+ *dry (see Rubiks.search())*/
+public class cubeTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    int job;
+
+    cubeTask(int job){
+        this.job = job;
+    }
+
+    protected void compute(){
+        if (Rubiks.isCancelled()) return;
+        int res = Rubiks.nodeSolve(workQueue, job, Node.bound, slvMaster);
+        found.add(res);
+        if (res > 0 && Rubiks.isFirst()) Master.this.cancel();
+    }
+
+}
 
-            if (currCube == null){
-                break;
-            } else {
-                res = Rubiks.nodeSolve(currCube , Node.bound, slvMaster);
-                incSolutions(res);
-            }
 
+/*Receives the number of solutions found by each worker in this bound*/
+private void receiveSolutions() throws IOException{
+    for (int n = 0; n < Node.numNodes; n++){
+        if (!ibisesInPool[n].equals(myself)){
+            ReadMessage sol_msg = recvSolutionPort.receive();
+            int workerSolution = sol_msg.readInt();
+            sol_msg.finish();
+            found.add(workerSolution);
+            if (workerSolution > 0 && Rubiks.isFirst()) cancel();
         }
     }
+}
 
+/*Stops the search of this node, and tells all workers to stop theirs (--first)*/
+private synchronized void cancel(){
+    Rubiks.cancel();
+    if (cancelSent) return;
+    cancelSent = true;
+    try {
+        WriteMessage cancel_msg = sendInfoPort.newMessage();
+        cancel_msg.writeInt(CANCEL);
+        cancel_msg.finish();
+    } catch (IOException e){
+        e.printStackTrace();
+    }
 }
 
-/*Protect against concurrent wirtes*/
-private synchronized void incSolutions (int sol){
-    Node.solutions +=sol;
+/*Thread receiving the solutions of the workers during a bound (--first)*/
+public class solutionThread extends Thread {
+
+    public void run(){
+        try {
+            receiveSolutions();
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
 }
 
 
@@ -0,0 +1,182 @@
+package rubiks.bonus;
+
+/**
+ * Decides which move sequences a search needs to try. Twists on the same axis
+ * commute, so of each run of twists on the same axis only one ordering is
+ * searched: the one with non-decreasing move numbers. A solution found then
+ * counts once for every ordering of its runs, so the number of solutions is
+ * the same as when searching all sequences.
+ *
+ * Runs that turn the same rows both ways, or the same rows three times, are
+ * not searched at all. A shorter sequence leads to the same cube, so these can
+ * never be part of a shortest solution. As the search only counts solutions
+ * of the first bound that has any, this does not change the result either.
+ *
+ * The state after each twist is kept on a stack, so a search calls push()
+ * after each twist and pop() after each untwist.
+ *
+ * A cube which has already been twisted (for instance one handed out by the
+ * master) only passes on the weight of its twists: its search starts with a
+ * new run. Its twists need not be part of a shortest solution, for instance
+ * when the master twists a cube that is almost solved, so nothing after them
+ * may be left out.
+ */
+final class MovePruning {
+
+    // number of moves on a single axis, see TwistTable
+    private final int movesPerAxis;
+
+    // state after each twist, indexed by depth: the last move, how often it
+    // was repeated, the length of the current run of twists on the same axis,
+    // and the number of orderings of all runs so far
+    private int[] last;
+
+    private int[] repeats;
+
+    private int[] runs;
+
+    private long[] weights;
+
+    private int depth;
+
+    /**
+     * Creates the pruning state for a cube, taking the weight of the twists it
+     * has already had into account.
+     *
+     * @param cube
+     *            cube to search from
+     */
+    MovePruning(Cube cube) {
+        movesPerAxis = TwistTable.moves(cube.getSize()) / 3;
+
+        last = new int[16];
+        repeats = new int[16];
+        runs = new int[16];
+        weights = new long[16];
+
+        last[0] = -1;
+        weights[0] = 1;
+        depth = 0;
+
+        for (int twist = 0; twist < cube.getTwists(); twist++) {
+            push(cube.getMove(twist));
+        }
+
+        // start searching with a new run
+        last[0] = -1;
+        weights[0] = weights[depth];
+        depth = 0;
+    }
+
+    /**
+     * Returns if a move needs to be searched after the current sequence.
+     *
+     * @param move
+     *            number of the move
+     * @return true if the move should be searched, false if not
+     */
+    boolean allows(int move) {
+        int previous = last[depth];
+
+        if (previous < 0 || previous / movesPerAxis != move / movesPerAxis) {
+            // start of a new run
+            return true;
+        }
+
+        if (move < previous) {
+            // other ordering of the same run
+            return false;
+        }
+
+        if (move == previous) {
+            return repeats[depth] < 2;
+        }
+
+        // same rows as the previous move, but the other direction
+        return (previous & 1) == 1 || move != previous + 1;
+    }
+
+    /**
+     * Adds a move to the current sequence.
+     *
+     * @param move
+     *            number of the move
+     */
+    void push(int move) {
+        if (depth + 1 >= last.length) {
+            grow();
+        }
+
+        int previous = last[depth];
+        int run;
+        int repeat;
+        long weight = weights[depth];
+
+        if (previous < 0 || previous / movesPerAxis != move / movesPerAxis) {
+            run = 1;
+            repeat = 1;
+        } else {
+            run = runs[depth] + 1;
+            repeat = (move == previous) ? repeats[depth] + 1 : 1;
+
+            // the orderings of the run grow from (run - 1)! / ... to run! /
+            // ..., this division is always exact
+            weight = (weight * run) / repeat;
+        }
+
+        depth++;
+        last[depth] = move;
+        repeats[depth] = repeat;
+        runs[depth] = run;
+        weights[depth] = weight;
+    }
+
+    /**
+     * Removes the last move from the current sequence.
+     */
+    void pop() {
+        depth--;
+    }
+
+    /**
+     * Number of move sequences the current sequence stands for.
+     *
+     * @return the number of orderings of the current sequence
+     */
+    long weight() {
+        return weights[depth];
+    }
+
+    /**
+     * State of the current run of twists. The moves allowed after the
+     * current sequence, and how these change its weight, only depend on this
+     * state, so searches from the same cube with the same state find the same
+     * solutions, relative to their weight.
+     *
+     * @return the last move, its repeats and the length of its run combined
+     */
+    long context() {
+        return ((long) (last[depth] + 1) << 32) | (repeats[depth] << 16)
+                | runs[depth];
+    }
+
+    private void grow() {
+        int length = last.length * 2;
+
+        int[] newLast = new int[length];
+        int[] newRepeats = new int[length];
+        int[] newRuns = new int[length];
+        long[] newWeights = new long[length];
+
+        System.arraycopy(last, 0, newLast, 0, last.length);
+        System.arraycopy(repeats, 0, newRepeats, 0, repeats.length);
+        System.arraycopy(runs, 0, newRuns, 0, runs.length);
+        System.arraycopy(weights, 0, newWeights, 0, weights.length);
+
+        last = newLast;
+        repeats = newRepeats;
+        runs = newRuns;
+        weights = newWeights;
+    }
+
+}
@@ -10,6 +10,7 @@ package rubiks.bonus;
 
 import ibis.ipl.*;
 import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
 
 public class Node{
 
@@ -24,6 +25,9 @@ public class Node{
 
     public static int m_twists, m_seed, m_size;
     public static int numThreads;
+    /*Threads of this node, for the whole solve. Each thread has a deque of
+     *jobs of its own and steals from the others when it runs dry*/
+    public static ForkJoinPool pool;
 
     public static Cube initCube;
     public static int solutions=0;
@@ -79,6 +83,7 @@ public class Node{
         m_size = initCube.getSize();
         m_seed = seed;
         numThreads = threads;
+        pool = new ForkJoinPool(numThreads);
     }
 
 
@@ -96,6 +101,9 @@ public class Node{
         } else {
             new Worker(master, 2).run();
         }
+        Rubiks.closeFrontiers();
+
+        pool.shutdown();
 
         if (master.equals(ibis.identifier())){
             System.err.println("Solving cube took " + totalTime + " milliseconds");
@@ -0,0 +1,139 @@
+package rubiks.bonus;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the solutions found by a search, one line per solution: its weight,
+ * followed by the moves solving the cube (see TwistTable.name()), for instance
+ * "2 X1+ Z2- X1+".
+ *
+ * The moves are taken from the move stack of the solved cube (see
+ * Cube.getMove()), and written into a buffer of a fixed size, which is
+ * written out whenever it is full. So no strings or cube copies are made for
+ * a solution. Threads may share a writer, each line is written as a whole.
+ *
+ * A search which skips reorderings of commuting twists (see MovePruning) only
+ * writes the solutions with these twists in a single order. The weight of a
+ * line is the number of solutions it stands for (MovePruning.weight()), so
+ * the weights of all lines add up to the number of solutions found.
+ */
+final class SolutionWriter {
+
+    // size of the buffer
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    // longest move written, see TwistTable.name(), and a space or newline
+    private static final int MOVE_SIZE = 5;
+
+    // longest weight written, and a space or newline
+    private static final int WEIGHT_SIZE = 20;
+
+    private final OutputStream out;
+
+    private final boolean closeOut;
+
+    private final byte[] buffer;
+
+    private int used = 0;
+
+    /**
+     * Creates a writer to a file.
+     *
+     * @param fileName
+     *            name of the file to write
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    SolutionWriter(String fileName) throws IOException {
+        this(new FileOutputStream(fileName), true);
+    }
+
+    /**
+     * Creates a writer to a stream, which is not closed by close().
+     *
+     * @param out
+     *            stream to write to
+     */
+    SolutionWriter(OutputStream out) {
+        this(out, false);
+    }
+
+    private SolutionWriter(OutputStream out, boolean closeOut) {
+        this.out = out;
+        this.closeOut = closeOut;
+        buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Writes the moves done to a solved cube.
+     *
+     * @param cube
+     *            the solved cube
+     * @param weight
+     *            number of solutions the moves stand for, see class comment
+     */
+    synchronized void write(Cube cube, long weight) {
+        int size = cube.getSize();
+        int twists = cube.getTwists();
+
+        if (used + WEIGHT_SIZE > buffer.length) {
+            flush();
+        }
+        writeNumber(weight);
+        buffer[used++] = (byte) ((twists == 0) ? '\n' : ' ');
+
+        for (int twist = 0; twist < twists; twist++) {
+            if (used + MOVE_SIZE > buffer.length) {
+                flush();
+            }
+            used = TwistTable.name(size, cube.getMove(twist), buffer, used);
+            buffer[used++] = (byte) ((twist == twists - 1) ? '\n' : ' ');
+        }
+    }
+
+    /**
+     * Writes out all solutions still in the buffer, and closes the file (if
+     * any).
+     */
+    synchronized void close() {
+        flush();
+        try {
+            if (closeOut) {
+                out.close();
+            } else {
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new Error("cannot write solutions: " + e);
+        }
+    }
+
+    // *** Only private functions ahead ***\\
+
+    private void writeNumber(long number) {
+        int start = used;
+        do {
+            buffer[used++] = (byte) ('0' + (number % 10));
+            number /= 10;
+        } while (number > 0);
+
+        // the digits were written backwards
+        for (int i = start, j = used - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+
+    private void flush() {
+        try {
+            out.write(buffer, 0, used);
+        } catch (IOException e) {
+            throw new Error("cannot write solutions: " + e);
+        }
+        used = 0;
+    }
+
+}
@@ -0,0 +1,216 @@
+package rubiks.bonus;
+
+import java.util.Random;
+
+/**
+ * Estimates the number of cubes a search visits for a bound, without doing
+ * the search, with random probes (Knuth's estimator): a probe follows a
+ * single random path down the tree, and a cube at depth d of this path stands
+ * for the product of the number of children of the cubes above it. The
+ * average over many probes is an unbiased estimate of the number of cubes at
+ * each depth.
+ *
+ * A probe uses the same rules as the search: MovePruning decides the children
+ * of a cube, and a cube the heuristic rules out is visited, but has no
+ * children. Cubes which the search looks up in a table are still counted, so
+ * the estimate is an upper bound when tables are used.
+ *
+ * Combined with the time of the last bounds searched, this also predicts the
+ * time the search of the next bound takes.
+ */
+final class TreeEstimate {
+
+    // bounds beyond the lower bound of the search used to pick the split
+    // depth, see splitDepth()
+    private static final int SPLIT_BOUNDS = 2;
+
+    // bounds searched faster than this do not tell the speed of the search
+    // (for instance before the code is compiled)
+    private static final long MIN_MILLISECONDS = 100;
+
+    private final Cube cube;
+
+    private final int probes;
+
+    // estimated cubes at each depth, indexed by bound, null if not done yet
+    private double[][] levels = new double[16][];
+
+    // estimated cubes and time of the last bound which took long enough, or
+    // of all bounds searched so far if none did
+    private double searchedNodes = 0;
+
+    private long searchedMilliseconds = 0;
+
+    /**
+     * Creates an estimator for the search of a cube.
+     *
+     * @param cube
+     *            cube to solve. Only used while estimating, and left in its
+     *            original state
+     * @param probes
+     *            number of random paths per bound
+     */
+    TreeEstimate(Cube cube, int probes) {
+        this.cube = cube;
+        this.probes = probes;
+    }
+
+    /**
+     * Estimated number of cubes visited by the search of a bound, at each
+     * depth.
+     *
+     * @param bound
+     *            bound of the search
+     * @return estimated cubes at each depth ( 0 <= depth <= bound )
+     */
+    synchronized double[] levels(int bound) {
+        if (bound >= levels.length) {
+            double[][] grown = new double[bound * 2][];
+            System.arraycopy(levels, 0, grown, 0, levels.length);
+            levels = grown;
+        }
+        if (levels[bound] == null) {
+            levels[bound] = probe(bound);
+        }
+        return levels[bound];
+    }
+
+    /**
+     * Estimated number of cubes visited by the search of a bound.
+     *
+     * @param bound
+     *            bound of the search
+     * @return estimated number of cubes
+     */
+    double nodes(int bound) {
+        double result = 0;
+        for (double level : levels(bound)) {
+            result += level;
+        }
+        return result;
+    }
+
+    /**
+     * Records the time the search of a bound took, to predict the time of
+     * the next bounds.
+     *
+     * @param bound
+     *            bound searched
+     * @param milliseconds
+     *            time the search took
+     */
+    synchronized void searched(int bound, long milliseconds) {
+        if (milliseconds >= MIN_MILLISECONDS) {
+            searchedNodes = nodes(bound);
+            searchedMilliseconds = milliseconds;
+        } else if (searchedMilliseconds < MIN_MILLISECONDS) {
+            searchedNodes += nodes(bound);
+            searchedMilliseconds += milliseconds;
+        }
+    }
+
+    /**
+     * Describes the estimated size of the search of a bound, and the time it
+     * takes at the speed of the last bounds searched (if any).
+     *
+     * @param bound
+     *            bound of the search
+     * @return a single line describing the estimate
+     */
+    synchronized String predict(int bound) {
+        double nodes = nodes(bound);
+        String result = "Bound " + bound + ": estimated " + Math.round(nodes)
+                + " cubes";
+
+        if (searchedNodes > 0 && searchedMilliseconds > 0) {
+            long milliseconds = Math.round(nodes * searchedMilliseconds
+                    / searchedNodes);
+            result += ", about " + milliseconds + " milliseconds";
+        }
+        return result;
+    }
+
+    /**
+     * Depth to which a search should be split into jobs, so that there are
+     * enough jobs: the smallest depth (of at least 2) with at least the given
+     * number of cubes at that depth in the search of a bound a few twists
+     * beyond the lower bound of the heuristic. Jobs the heuristic rules out
+     * right away in that search are not counted, in the first bounds most
+     * jobs are. The jobs are only searched for solutions longer than the
+     * depth, so it is also kept below the lower bound.
+     *
+     * @param jobs
+     *            number of jobs wanted
+     * @param maximum
+     *            largest depth allowed
+     * @return the depth to split the search at
+     */
+    int splitDepth(int jobs, int maximum) {
+        int lowerBound = new Heuristic(cube).estimate();
+        int bound = lowerBound + SPLIT_BOUNDS;
+        maximum = Math.min(maximum, lowerBound - 1);
+
+        int depth = 2;
+        while (depth < maximum && levels(bound)[depth] < jobs) {
+            depth++;
+        }
+        return depth;
+    }
+
+    // *** Only private functions ahead ***\\
+
+    private double[] probe(int bound) {
+        double[] result = new double[bound + 1];
+        int[] children = new int[cube.getMoves()];
+        int[] done = new int[bound];
+        int root = cube.getTwists();
+
+        // the same probes every time, so estimates can be compared
+        Random random = new Random(bound);
+        MovePruning pruning = new MovePruning(cube);
+        Heuristic heuristic = new Heuristic(cube);
+
+        int saved = cube.getBound();
+        cube.setBound(bound);
+
+        for (int probe = 0; probe < probes; probe++) {
+            double weight = 1;
+            int depth = 0;
+            result[0] += 1;
+
+            while (!cube.isSolved() && cube.getTwists() < bound
+                    && cube.getTwists() + heuristic.estimate() <= bound) {
+                int count = 0;
+                for (int move = 0; move < cube.getMoves(); move++) {
+                    if (pruning.allows(move)) {
+                        children[count++] = move;
+                    }
+                }
+
+                int move = children[random.nextInt(count)];
+                cube.twist(move);
+                pruning.push(move);
+                heuristic.push(move);
+                done[depth++] = move;
+
+                weight *= count;
+                result[cube.getTwists() - root] += weight;
+            }
+
+            while (depth > 0) {
+                depth--;
+                heuristic.pop();
+                pruning.pop();
+                cube.untwist(done[depth]);
+            }
+        }
+
+        cube.setBound(saved);
+
+        for (int depth = 0; depth <= bound; depth++) {
+            result[depth] /= probes;
+        }
+        return result;
+    }
+
+}
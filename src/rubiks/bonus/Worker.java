@@ -13,14 +13,18 @@ import ibis.ipl.*;
 import java.util.LinkedList;
 import java.io.IOException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
 
 public class Worker {
-    //LinkedList<Cube> workerQueue;
-    LinkedList<Cube> tempQueue;
-    LinkedList<Cube> workQueue;
-    LinkedBlockingQueue<Cube> threadQueue;
+    /*Jobs of all nodes, this worker solves jobs wStart to wEnd*/
+    CubeStore workQueue;
+    /*Solutions found in the current bound by the threads of this node*/
+    LongAdder found;
     IbisIdentifier master;
+    /*Signals of the master other than CANCEL, with --first (see signalThread)*/
+    LinkedBlockingQueue<Integer> signals = null;
     static int bound;
     int terminationSignal = 0;
     int wStart = 0, wEnd = 0;
@@ -29,8 +33,6 @@ public class Worker {
     int c_i = 0;
     boolean unevenDist=false;
 
-    private static workerThread[] threads;
-
     /*Ports for worker*/
     ReceivePort recvCubePort; //workPort
     ReceivePort recvInfoPort; //broadcastPort
@@ -56,10 +58,6 @@ public class Worker {
     }
 
     public void run() throws IOException{
-        tempQueue = new LinkedList<Cube>();
-        workQueue = new LinkedList<Cube>();
-        threadQueue = new LinkedBlockingQueue<Cube>();
-        threads = new workerThread[Node.numThreads];
 
         /*Get my ID from master*/
         ReadMessage id_msg = recvSingleInfoPort.receive();
@@ -72,17 +70,17 @@ public class Worker {
         Node.numNodes = node_msg.readInt();
         node_msg.finish();
 
-        try { //Get work list from master
-            ReadMessage q_msg = recvCubePort.receive();
-            tempQueue.addAll((LinkedList<Cube>) q_msg.readObject());
-            q_msg.finish();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        /*Get work list from master, the moves of each job from the initial cube*/
+        ReadMessage q_msg = recvCubePort.receive();
+        int jobDepth = q_msg.readInt();
+        byte[] jobData = new byte[q_msg.readInt()];
+        q_msg.readArray(jobData);
+        q_msg.finish();
+        workQueue = new CubeStore(Node.initCube, jobDepth, jobData);
 
         /*Figure out which cubes correspond to this worker*/
-        remainingCubes = tempQueue.size() % Node.numNodes;
-        cubesPerNode = (int) tempQueue.size() / Node.numNodes;
+        remainingCubes = workQueue.size() % Node.numNodes;
+        cubesPerNode = (int) workQueue.size() / Node.numNodes;
         for (int i = 0; i < Node.numNodes; i++){
             if(i <= remainingCubes) c_i = i;
             if (i == Node.rank){
@@ -96,33 +94,27 @@ public class Worker {
         
             }
         }
-        Cube tempCube = tempQueue.peek();
-        /*Get cubes that correspond to this worker*/
-        for (int w = wStart; w <= wEnd; w++){
-            workQueue.add(tempQueue.get(w));
-        }
 
         
-        Node.bound = tempCube.getBound();
+        Node.bound = workQueue.getDepth();
+        /*The master may split deeper than 2 (--estimate)*/
+        solvedAtMaster = Node.bound;
 
 
+        /*With --first the master may cancel a bound at any time*/
+        if (Rubiks.isFirst()){
+            signals = new LinkedBlockingQueue<Integer>();
+            new signalThread().start();
+        }
+
         /*Start computing*/
         while(true){
-            threadQueue.addAll(workQueue);
+            found = new LongAdder();
             Node.bound++;
 
-            for (int t = 0; t < Node.numThreads; t++) {
-                threads[t] = new workerThread();
-                threads[t].start();
-            }
-
-            for (int t = 0; t < Node.numThreads; t++){
-                try {
-                    threads[t].join();
-                } catch (InterruptedException e){
-                    e.printStackTrace();
-                }
-            }
+            /*Solve the cubes of this worker on the threads of this node*/
+            Node.pool.invoke(new roundTask());
+            Node.solutions += found.intValue();
 
             /*Inform master of any solutions found*/
             WriteMessage sol_msg = sendSolutionPort.newMessage();
@@ -130,9 +122,7 @@ public class Worker {
             sol_msg.finish();
 
             /*Receive term / cont signal from Master*/
-            ReadMessage signal_msg = recvInfoPort.receive();
-            terminationSignal = signal_msg.readInt();
-            signal_msg.finish();
+            terminationSignal = receiveSignal();
 
             if (terminationSignal == 1) break;
         }
@@ -143,38 +133,82 @@ public class Worker {
     }
 
 
-/*Thread routine*/
-public class workerThread extends Thread {
+/*Task searching all jobs of this worker in a bound. The jobs are pushed on
+ *the deque of a single thread, the other threads steal them from there*/
+public class roundTask extends RecursiveAction {
 
-    public void run(){
+    private static final long serialVersionUID = 1L;
 
-        while(true){
-            int res = 0;
-            Cube currCube = null;
+    protected void compute(){
+        LinkedList<cubeTask> tasks = new LinkedList<cubeTask>();
+        for (int job = wStart; job <= wEnd; job++){
+            tasks.add(new cubeTask(job));
+        }
+        invokeAll(tasks);
+    }
 
-            if (threadQueue.isEmpty()){
-                return;
-            }
+}
 
-            currCube = threadQueue.poll();
+/*Task searching a single job. Splits its search when other threads run
+ *dry (see Rubiks.search())*/
+public class cubeTask extends RecursiveAction {
 
-            if (currCube == null){
-                break;
-            } else {
-                res = Rubiks.nodeSolve(currCube , Node.bound, solvedAtMaster);
-                incSolutions(res);
-            }
-        }
+    private static final long serialVersionUID = 1L;
 
+    int job;
+
+    cubeTask(int job){
+        this.job = job;
+    }
+
+    protected void compute(){
+        if (Rubiks.isCancelled()) return;
+        found.add(Rubiks.nodeSolve(workQueue, job, Node.bound, solvedAtMaster));
     }
 
 }
 
-/*Protect against concurrent wirtes*/
-private synchronized void incSolutions (int sol){
-    Node.solutions +=sol;
+
+/*Receives the next term / cont signal from the master*/
+private int receiveSignal() throws IOException{
+    if (signals != null){
+        try {
+            return signals.take();
+        } catch (InterruptedException e){
+            throw new IOException("interrupted while waiting for master: " + e);
+        }
+    }
+    ReadMessage signal_msg = recvInfoPort.receive();
+    int signal = signal_msg.readInt();
+    signal_msg.finish();
+    return signal;
 }
 
+/*Thread receiving all signals of the master (--first). A CANCEL stops the
+ *search of this node at once, other signals are passed on to run()*/
+public class signalThread extends Thread {
+
+    public void run(){
+        while(true){
+            int signal;
+            try {
+                ReadMessage signal_msg = recvInfoPort.receive();
+                signal = signal_msg.readInt();
+                signal_msg.finish();
+            } catch (IOException e){
+                e.printStackTrace();
+                return;
+            }
+
+            if (signal == Master.CANCEL){
+                Rubiks.cancel();
+            } else {
+                signals.add(signal);
+                if (signal == Master.TERMINATE) return;
+            }
+        }
+    }
 
+}
 
-}
\ No newline at end of file
+}
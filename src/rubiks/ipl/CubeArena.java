@@ -0,0 +1,102 @@
+package rubiks.ipl;
+
+/**
+ * Cube objects for generating the children of cubes, allocated once up front:
+ * for every depth (ply) of a search a child cube for every move, and the
+ * array holding these children (see Cube.generateChildren()). The children of
+ * a cube at some ply are written over the children of the last cube at that
+ * ply, so a search which only keeps the children of the cubes it is currently
+ * searching needs no new cube objects at all, and does not keep the garbage
+ * collector busy.
+ *
+ * A child which is needed after the next cube at the same ply is generated
+ * has to be copied. An arena is not thread safe, each thread uses its own.
+ */
+public class CubeArena {
+
+    // estimated bytes used by the fields and headers of a single cube and of
+    // its arrays, see footprint()
+    private static final int CUBE_BYTES = 160;
+
+    private final int cubeSize;
+
+    // children of each ply, indexed by ply and move
+    private final Cube[][] children;
+
+    /**
+     * Creates an arena, with all its cubes.
+     *
+     * @param cubeSize
+     *            size of the cubes
+     * @param depth
+     *            number of plies ( 0 <= ply < depth )
+     */
+    public CubeArena(int cubeSize, int depth) {
+        this.cubeSize = cubeSize;
+
+        int moves = TwistTable.moves(cubeSize);
+        children = new Cube[depth][moves];
+        for (int ply = 0; ply < depth; ply++) {
+            for (int move = 0; move < moves; move++) {
+                children[ply][move] = new Cube(cubeSize);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of plies of this arena.
+     *
+     * @return the number of plies
+     */
+    public int getDepth() {
+        return children.length;
+    }
+
+    /**
+     * Returns the children of a ply, one for every move.
+     *
+     * @param ply
+     *            ply of the children
+     * @return the children of the ply, in the order of their move numbers
+     */
+    public Cube[] children(int ply) {
+        return children[ply];
+    }
+
+    /**
+     * Returns a single child of a ply.
+     *
+     * @param ply
+     *            ply of the child
+     * @param move
+     *            move leading to the child
+     * @return the child
+     */
+    public Cube get(int ply, int move) {
+        return children[ply][move];
+    }
+
+    /**
+     * Estimated memory used by this arena.
+     *
+     * @return the estimated number of bytes
+     */
+    public long footprint() {
+        long cubes = (long) children.length * TwistTable.moves(cubeSize);
+        long arrays = children.length * (16 + 4L * TwistTable.moves(cubeSize));
+
+        return cubes * (CUBE_BYTES + Cube.SIDES * cubeSize * cubeSize) + arrays;
+    }
+
+    /**
+     * Describes the size of this arena.
+     *
+     * @return a single line with the cubes and memory of this arena
+     */
+    public String toString() {
+        return "Cube arena of " + children.length + " plies: "
+                + (children.length * TwistTable.moves(cubeSize))
+                + " cubes, about " + footprint() + " bytes";
+    }
+
+}
@@ -0,0 +1,179 @@
+package rubiks.ipl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Jobs handed out by the master: cubes reached from the initial cube by the
+ * same number of moves, stored off the heap in a direct ByteBuffer, so even a
+ * large number of jobs are no objects for the garbage collector to go through.
+ *
+ * Each job is a slot of a fixed size: the last bound searched for it (see
+ * Rubiks.nodeSolve()), followed by the moves leading to it from the initial
+ * cube, a byte each (see TwistTable). Every node has the initial cube, so a
+ * job is decoded by doing these moves on a copy of it, in a working cube
+ * which can be used again for the next job.
+ *
+ * Slots of different jobs may be used by different threads at the same time.
+ */
+final class CubeStore {
+
+    // initial cube, never twisted itself
+    private final Cube root;
+
+    // moves of each job
+    private final int depth;
+
+    private final int slotSize;
+
+    private ByteBuffer slots;
+
+    private int count;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param root
+     *            cube all jobs are reached from
+     * @param depth
+     *            number of moves leading to each job
+     */
+    CubeStore(Cube root, int depth) {
+        this.root = root;
+        this.depth = depth;
+        slotSize = 4 + depth;
+        slots = ByteBuffer.allocateDirect(slotSize * 64);
+        count = 0;
+    }
+
+    /**
+     * Creates a store with the jobs of another store, see toArray().
+     *
+     * @param root
+     *            cube all jobs are reached from
+     * @param depth
+     *            number of moves leading to each job
+     * @param data
+     *            all slots of the other store
+     */
+    CubeStore(Cube root, int depth, byte[] data) {
+        this.root = root;
+        this.depth = depth;
+        slotSize = 4 + depth;
+        slots = ByteBuffer.allocateDirect(Math.max(data.length, slotSize));
+        slots.put(data);
+        count = data.length / slotSize;
+    }
+
+    /**
+     * Adds a job.
+     *
+     * @param cube
+     *            cube reached from the initial cube by the moves of a job.
+     *            Its bound is stored as the last bound searched
+     */
+    void add(Cube cube) {
+        if (cube.getTwists() - root.getTwists() != depth) {
+            throw new Error("job cube has " + cube.getTwists()
+                    + " twists, expected " + (root.getTwists() + depth));
+        }
+
+        if ((count + 1) * slotSize > slots.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(slots.capacity() * 2);
+            slots.position(0);
+            slots.limit(count * slotSize);
+            grown.put(slots);
+            slots = grown;
+        }
+
+        int offset = count * slotSize;
+        slots.putInt(offset, cube.getBound());
+        for (int i = 0; i < depth; i++) {
+            slots.put(offset + 4 + i, (byte) cube.getMove(root.getTwists() + i));
+        }
+        count++;
+    }
+
+    /**
+     * Returns the number of jobs.
+     *
+     * @return the number of jobs
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the number of moves leading to each job.
+     *
+     * @return the number of moves of each job
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the size of the cubes of the jobs.
+     *
+     * @return the size of the cubes
+     */
+    int getCubeSize() {
+        return root.getSize();
+    }
+
+    /**
+     * Returns the last bound searched for a job.
+     *
+     * @param job
+     *            number of the job
+     * @return the last bound searched
+     */
+    int getBound(int job) {
+        return slots.getInt(job * slotSize);
+    }
+
+    /**
+     * Sets the last bound searched for a job.
+     *
+     * @param job
+     *            number of the job
+     * @param bound
+     *            the last bound searched
+     */
+    void setBound(int job, int bound) {
+        slots.putInt(job * slotSize, bound);
+    }
+
+    /**
+     * Decodes a job into a working cube.
+     *
+     * @param job
+     *            number of the job
+     * @param working
+     *            cube of the same size, overwritten with the job
+     * @return the working cube, with the bound of the job
+     */
+    Cube get(int job, Cube working) {
+        root.copyTo(working);
+
+        int offset = job * slotSize;
+        for (int i = 0; i < depth; i++) {
+            working.twist(slots.get(offset + 4 + i) & 0xFF);
+        }
+        working.setBound(getBound(job));
+        return working;
+    }
+
+    /**
+     * Copies all slots to the heap, to send them to other nodes.
+     *
+     * @return all slots of this store
+     */
+    byte[] toArray() {
+        byte[] result = new byte[count * slotSize];
+        ByteBuffer view = slots.duplicate();
+        view.position(0);
+        view.get(result);
+        return result;
+    }
+
+}
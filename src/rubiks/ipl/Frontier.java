@@ -0,0 +1,304 @@
+package rubiks.ipl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frontier of an iterative deepening search: the cubes at which the search of
+ * a bound stopped without searching any further. The search of the next bound
+ * continues from these cubes only, so the part of the tree above them is
+ * generated once instead of once per bound.
+ *
+ * A cube in the frontier is stored as the moves leading to it from the cube
+ * the search started with, packed in a few longs. Replaying these moves also
+ * restores the pruning state (see MovePruning) and the heuristic exactly.
+ *
+ * The frontier being read (of the previous bound) and the frontier being
+ * written (of the current bound) keep cubes in a buffer, which grows as long
+ * as the memory budget allows. A budget can be shared by several frontiers,
+ * such as those of all jobs of a node. Once a frontier does not fit, it is
+ * written to a temporary file through a FileChannel, and read back from
+ * there. close() removes these files.
+ */
+final class Frontier {
+
+    // largest buffer of a single bound, the rest goes to its file
+    private static final int MAX_BUFFER = 1 << 30;
+
+    // twists of the cube the search starts with
+    private final int rootTwists;
+
+    // bits used per move
+    private final int bits;
+
+    // bytes all frontiers sharing it may still add to their buffers
+    private final AtomicLong budget;
+
+    // frontier of the previous bound, and of the current bound
+    private Store current;
+
+    private Store next;
+
+    /**
+     * Creates the frontier of a search, with a budget of its own.
+     *
+     * @param root
+     *            cube the search starts with
+     * @param megabytes
+     *            memory used by the frontier before it is written to disk
+     */
+    Frontier(Cube root, int megabytes) {
+        this(root, budget(megabytes));
+    }
+
+    /**
+     * Creates the frontier of a search. Before the first bound, the frontier
+     * is the cube itself.
+     *
+     * @param root
+     *            cube the search starts with
+     * @param budget
+     *            memory left for the buffers of all frontiers sharing it, see
+     *            budget()
+     */
+    Frontier(Cube root, AtomicLong budget) {
+        rootTwists = root.getTwists();
+        bits = 32 - Integer.numberOfLeadingZeros(root.getMoves() - 1);
+        this.budget = budget;
+
+        current = new Store(0);
+        current.add(root);
+    }
+
+    /**
+     * Creates a memory budget, to be shared by frontiers.
+     *
+     * @param megabytes
+     *            memory of all frontiers sharing the budget
+     * @return the budget, in bytes
+     */
+    static AtomicLong budget(int megabytes) {
+        return new AtomicLong((long) megabytes << 20);
+    }
+
+    /**
+     * Reads the next cube of the frontier of the previous bound.
+     *
+     * @param moves
+     *            filled with the moves leading to the cube
+     * @return number of moves leading to the cube, or -1 if there are no more
+     *         cubes
+     */
+    int next(int[] moves) {
+        return current.read(moves);
+    }
+
+    /**
+     * Adds a cube to the frontier of the current bound.
+     *
+     * @param cube
+     *            cube at which the search stopped, reached from the cube the
+     *            search started with
+     */
+    void add(Cube cube) {
+        if (next == null) {
+            next = new Store(cube.getBound() - rootTwists);
+        }
+        next.add(cube);
+    }
+
+    /**
+     * Moves on to the next bound: the frontier of the current bound is read
+     * next.
+     */
+    void advance() {
+        current.close();
+        current = (next == null) ? new Store(0) : next;
+        next = null;
+    }
+
+    /**
+     * Removes all files used by this frontier, and returns its memory to the
+     * budget.
+     */
+    void close() {
+        current.close();
+        if (next != null) {
+            next.close();
+            next = null;
+        }
+    }
+
+    /**
+     * Cubes of a single bound, in memory or in a file.
+     */
+    private final class Store {
+
+        // maximum number of moves of a cube
+        private final int length;
+
+        // moves per long, and longs per cube (the first holds the number of
+        // moves)
+        private final int perWord;
+
+        private final int words;
+
+        private ByteBuffer buffer;
+
+        private File file = null;
+
+        private FileChannel channel = null;
+
+        private boolean reading = false;
+
+        // bytes of the budget taken by the buffer
+        private long taken = 0;
+
+        Store(int length) {
+            this.length = length;
+            perWord = 64 / bits;
+            words = 1 + ((length + perWord - 1) / perWord);
+            buffer = ByteBuffer.allocate(words * 8 * 64);
+        }
+
+        void add(Cube cube) {
+            int moves = cube.getTwists() - rootTwists;
+            if (moves > length) {
+                throw new Error("frontier cube has too many moves");
+            }
+
+            if (buffer.remaining() < words * 8) {
+                if (grow()) {
+                    ByteBuffer grown = ByteBuffer
+                            .allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    grown.put(buffer);
+                    buffer = grown;
+                } else {
+                    spill();
+                }
+            }
+
+            buffer.putLong(moves);
+            for (int word = 1; word < words; word++) {
+                long packed = 0;
+                int first = (word - 1) * perWord;
+                for (int i = first; i < first + perWord && i < moves; i++) {
+                    long move = cube.getMove(rootTwists + i);
+                    packed |= move << ((i - first) * bits);
+                }
+                buffer.putLong(packed);
+            }
+        }
+
+        int read(int[] moves) {
+            if (!reading) {
+                reading = true;
+                if (channel == null) {
+                    buffer.flip();
+                } else {
+                    spill();
+                    try {
+                        channel.position(0);
+                    } catch (IOException e) {
+                        throw new Error("cannot read frontier: " + e);
+                    }
+                    buffer.limit(0);
+                }
+            }
+
+            if (!buffer.hasRemaining()) {
+                if (channel == null || !fill()) {
+                    return -1;
+                }
+            }
+
+            int result = (int) buffer.getLong();
+            for (int word = 1; word < words; word++) {
+                long packed = buffer.getLong();
+                int first = (word - 1) * perWord;
+                for (int i = first; i < first + perWord && i < result; i++) {
+                    moves[i] = (int) (packed >>> ((i - first) * bits))
+                            & ((1 << bits) - 1);
+                }
+            }
+            return result;
+        }
+
+        void close() {
+            budget.addAndGet(taken);
+            taken = 0;
+
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // ignore, only a temporary file
+                }
+                file.delete();
+                channel = null;
+            }
+        }
+
+        /**
+         * Takes memory from the budget for doubling the buffer.
+         *
+         * @return false if the budget or MAX_BUFFER does not allow it
+         */
+        private boolean grow() {
+            int extra = buffer.capacity();
+            if ((long) buffer.capacity() + extra > MAX_BUFFER) {
+                return false;
+            }
+            if (budget.addAndGet(-extra) < 0) {
+                budget.addAndGet(extra);
+                return false;
+            }
+            taken += extra;
+            return true;
+        }
+
+        /**
+         * Writes the buffer to the file of this store.
+         */
+        private void spill() {
+            try {
+                if (channel == null) {
+                    file = File.createTempFile("rubiks-frontier", ".tmp");
+                    file.deleteOnExit();
+                    channel = new RandomAccessFile(file, "rw").getChannel();
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            } catch (IOException e) {
+                throw new Error("cannot write frontier: " + e);
+            }
+        }
+
+        /**
+         * Reads the next part of the file into the buffer.
+         *
+         * @return false if the whole file has been read
+         */
+        private boolean fill() {
+            try {
+                buffer.clear();
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading until the buffer is full
+                }
+                buffer.flip();
+            } catch (IOException e) {
+                throw new Error("cannot read frontier: " + e);
+            }
+            return buffer.hasRemaining();
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+package rubiks.ipl;
+
+/**
+ * Lower bound on the number of twists needed to solve a cube, for pruning the
+ * search (IDA*). The bound is the largest distance given by the pattern
+ * databases: the corner database for every size, and for 3x3x3 cubes also the
+ * two edge databases.
+ *
+ * The database coordinates after each twist are kept on a stack, so a search
+ * calls push() after each twist and pop() after each untwist, just like for
+ * MovePruning.
+ */
+final class Heuristic {
+
+    private final int size;
+
+    private final CornerDatabase corners;
+
+    // null if there are no edge databases for this size
+    private final EdgeDatabase edges;
+
+    // coordinates after each twist, indexed by depth
+    private int[] permutations;
+
+    private int[] orientations;
+
+    // edge coordinates, indexed by group and depth
+    private int[][] groups;
+
+    private int depth;
+
+    /**
+     * Builds or loads the databases needed for cubes of a given size, so
+     * this is not done during the search.
+     *
+     * @param size
+     *            size of the cube
+     */
+    static void load(int size) {
+        CornerDatabase.get();
+        if (EdgeDatabase.supports(size)) {
+            EdgeDatabase.get();
+        }
+    }
+
+    /**
+     * Creates the heuristic for a cube.
+     *
+     * @param cube
+     *            cube to search from
+     */
+    Heuristic(Cube cube) {
+        size = cube.getSize();
+        corners = CornerDatabase.get();
+        edges = EdgeDatabase.supports(size) ? EdgeDatabase.get() : null;
+
+        permutations = new int[16];
+        orientations = new int[16];
+        permutations[0] = corners.permutation(cube);
+        orientations[0] = corners.orientation(cube);
+
+        if (edges != null) {
+            groups = new int[EdgeDatabase.GROUPS][16];
+            for (int group = 0; group < EdgeDatabase.GROUPS; group++) {
+                groups[group][0] = edges.coordinate(group, cube);
+            }
+        }
+        depth = 0;
+    }
+
+    /**
+     * Minimum number of twists needed to solve the current cube.
+     *
+     * @return lower bound on the twists needed
+     */
+    int estimate() {
+        int result = corners.distance(permutations[depth],
+                orientations[depth]);
+
+        if (edges != null) {
+            for (int group = 0; group < EdgeDatabase.GROUPS; group++) {
+                result = Math.max(result, edges.distance(group,
+                        groups[group][depth]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Updates the coordinates for a twist of the current cube.
+     *
+     * @param move
+     *            number of the move
+     */
+    void push(int move) {
+        if (depth + 1 >= permutations.length) {
+            grow();
+        }
+
+        int cornerMove = CornerDatabase.move(size, move);
+        permutations[depth + 1] = corners.permutation(permutations[depth],
+                cornerMove);
+        orientations[depth + 1] = corners.orientation(orientations[depth],
+                cornerMove);
+
+        if (edges != null) {
+            for (int[] coordinates : groups) {
+                coordinates[depth + 1] = edges.move(coordinates[depth], move);
+            }
+        }
+        depth++;
+    }
+
+    /**
+     * Returns to the coordinates before the last twist.
+     */
+    void pop() {
+        depth--;
+    }
+
+    private void grow() {
+        int length = permutations.length * 2;
+
+        permutations = copy(permutations, length);
+        orientations = copy(orientations, length);
+        if (edges != null) {
+            for (int group = 0; group < groups.length; group++) {
+                groups[group] = copy(groups[group], length);
+            }
+        }
+    }
+
+    private static int[] copy(int[] array, int length) {
+        int[] result = new int[length];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+}
@@ -12,7 +12,6 @@ package rubiks.ipl;
  *  @author Vasileios Gkanasoulis VU ID:2617203
  */
 import ibis.ipl.*;
-import java.util.LinkedList;
 import java.io.IOException;
 
 
@@ -28,16 +27,19 @@ public class Master {
     int remainingCubes, cubesPerNode;
     int slvMaster;
     IbisIdentifier myself;
-    CubeCache initCache;
+    CubeArena initArena;
     //signals for termination / continuation
     static final int TERMINATE = 1;
     static final int CONTINUE = 0;
+    //sent during a bound with --first, as soon as a solution is found
+    static final int CANCEL = 2;
+    boolean cancelSent = false;
+    //jobs wanted per thread when the split depth is estimated (--estimate)
+    static final int JOBS_PER_THREAD = 8;
     IbisIdentifier[] ibisesInPool;
 
-    /*Cubes meant for workers are place here*/
-    public LinkedList<Cube> workQueue;
-    /*Cubes that the master will solve go here*/
-    public LinkedList<Cube> localQueue;
+    /*Jobs of all nodes are placed here, the master solves jobs wStart to wEnd*/
+    public CubeStore workQueue;
 
     /*Ports for master*/
     SendPort    sendInfoPort; //Broadcast port
@@ -51,8 +53,6 @@ public class Master {
         myself = mServer;
         slvMaster = masterDepth;
         /*Init variables/datastructures*/
-        workQueue = new LinkedList<Cube>();
-        localQueue = new LinkedList<Cube>();
 
         /*Init ports and enable connections*/
         sendInfoPort = Node.ibis.createSendPort(Node.broadcastPort);
@@ -67,7 +67,6 @@ public class Master {
         Node.reg.waitUntilPoolClosed(); //Wait for all nodes to join
         ibisesInPool = Node.reg.joinedIbises();
         Node.numNodes = ibisesInPool.length; // get the number of nodes
-        initCache = new CubeCache(Node.initCube.getSize());
 
         /*Connect to all workers*/
         for (int n = 0; n < Node.numNodes; n++){
@@ -96,9 +95,19 @@ public class Master {
 
         /*Start timing here*/
         startTime = System.currentTimeMillis();
-        /*Generate Cubes from initial cube at Master. Depth=2*/
-        workQueue = Rubiks.solveAtMaster(Node.initCube, initCache, slvMaster);
+        /*Generate Cubes from initial cube at Master. Depth=2, or deep enough
+         *for several jobs per thread with --estimate*/
+        slvMaster = Rubiks.splitDepth(JOBS_PER_THREAD * Node.numNodes);
+        initArena = new CubeArena(Node.initCube.getSize(), slvMaster);
+        workQueue = Rubiks.solveAtMaster(Node.initCube, initArena, slvMaster);
         workCubes = Rubiks.getWorkItems();
+        /*Solved within the split depth: the master counted the solutions
+         *itself and there are no jobs. The first bound searched is the one
+         *of these solutions, which ends the search right away*/
+        if (Rubiks.getMasterSolutions() > 0){
+            Node.solutions = Rubiks.getMasterSolutions();
+            slvMaster = Rubiks.getMasterSteps() - 1;
+        }
 
 
         /*Inform workers of the groups size*/
@@ -106,9 +115,12 @@ public class Master {
         nodes_msg.writeInt(Node.numNodes);
         nodes_msg.finish();
 
-        /*Send the workQueue to the workers*/
+        /*Send the workQueue to the workers, only the moves of each job*/
+        byte[] jobData = workQueue.toArray();
         WriteMessage q_msg = sendCubePort.newMessage();
-        q_msg.writeObject(workQueue);
+        q_msg.writeInt(workQueue.getDepth());
+        q_msg.writeInt(jobData.length);
+        q_msg.writeArray(jobData);
         q_msg.finish();
 
         /*Figure out which cubes will be assigned to which nodes*/
@@ -129,10 +141,6 @@ public class Master {
             }
         }
 
-        for (int w = wStart; w <= wEnd; w++){
-            localQueue.add(workQueue.get(w));
-        }
-
         Node.bound = slvMaster;
 
  
@@ -141,23 +149,39 @@ public class Master {
 
             Node.bound++;
             System.out.print(" " + Node.bound);
+            Rubiks.predict(Node.bound);
+            long boundStart = System.currentTimeMillis();
+
 
+            /*With --first, solutions of the workers are received during the
+             *search, so the first solution found stops all nodes at once*/
+            solutionThread receiver = null;
+            if (Rubiks.isFirst()){
+                receiver = new solutionThread();
+                receiver.start();
+            }
 
-            for (int c = 0; c < localQueue.size(); c++){
-                Node.solutions += Rubiks.nodeSolve(localQueue.get(c) , Node.bound, slvMaster);
+            for (int job = wStart; job <= wEnd; job++){
+                if (Rubiks.isCancelled()) break;
+                int res = Rubiks.nodeSolve(workQueue, job, Node.bound, slvMaster);
+                incSolutions(res);
+                if (res > 0 && Rubiks.isFirst()) cancel();
             }
 
 
             /*Check if any of the workers found a solution*/
-            for (int n = 0; n < Node.numNodes; n++){
-                if (!ibisesInPool[n].equals(myself)){
-                    ReadMessage sol_msg = recvSolutionPort.receive();
-                    int workerSolution = sol_msg.readInt();
-                    sol_msg.finish();
-                    Node.solutions += workerSolution;
+            if (receiver == null){
+                receiveSolutions();
+            } else {
+                try {
+                    receiver.join();
+                } catch (InterruptedException e){
+                    e.printStackTrace();
                 }
             }
 
+            Rubiks.searched(Node.bound, System.currentTimeMillis() - boundStart);
+
             /*If solutions are found, inform workers to stop*/
             if(Node.solutions !=0){
                 WriteMessage term_msg = sendInfoPort.newMessage();
@@ -176,12 +200,61 @@ public class Master {
         endTime = System.currentTimeMillis();
         elapsedTime = endTime - startTime;
         System.out.println();
-        System.out.println("Solving cube possible in " + Node.solutions + " ways of "
-                + Node.bound + " steps");
+        if (Rubiks.isFirst()){
+            System.out.println("Solving cube possible in " + Node.bound + " steps");
+        } else {
+            System.out.println("Solving cube possible in " + Node.solutions + " ways of "
+                    + Node.bound + " steps");
+        }
         sendInfoPort.close();
         recvSolutionPort.close();
         return elapsedTime;
     }
 
+/*Protect against concurrent wirtes*/
+private synchronized void incSolutions (int sol){
+    Node.solutions +=sol;
+}
+
+
+/*Receives the number of solutions found by each worker in this bound*/
+private void receiveSolutions() throws IOException{
+    for (int n = 0; n < Node.numNodes; n++){
+        if (!ibisesInPool[n].equals(myself)){
+            ReadMessage sol_msg = recvSolutionPort.receive();
+            int workerSolution = sol_msg.readInt();
+            sol_msg.finish();
+            incSolutions(workerSolution);
+            if (workerSolution > 0 && Rubiks.isFirst()) cancel();
+        }
+    }
+}
+
+/*Stops the search of this node, and tells all workers to stop theirs (--first)*/
+private synchronized void cancel(){
+    Rubiks.cancel();
+    if (cancelSent) return;
+    cancelSent = true;
+    try {
+        WriteMessage cancel_msg = sendInfoPort.newMessage();
+        cancel_msg.writeInt(CANCEL);
+        cancel_msg.finish();
+    } catch (IOException e){
+        e.printStackTrace();
+    }
+}
+
+/*Thread receiving the solutions of the workers during a bound (--first)*/
+public class solutionThread extends Thread {
+
+    public void run(){
+        try {
+            receiveSolutions();
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+}
 
 }
\ No newline at end of file
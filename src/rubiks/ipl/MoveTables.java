@@ -0,0 +1,86 @@
+package rubiks.ipl;
+
+/**
+ * Coordinate move tables for the 3x3x3 cube. Each table gives the new value of
+ * a coordinate (see CubieCube) after a move, so twisting a coordinate is a
+ * single array lookup instead of a twist of the entire cube.
+ *
+ * The tables are built on first use and shared by all threads.
+ */
+public final class MoveTables {
+
+    private static MoveTables instance = null;
+
+    private final int moves;
+
+    // new coordinate for each (coordinate, move) pair, stored as
+    // [coordinate * moves + move]
+    private final short[] cornerOrientation;
+
+    private final short[] edgeOrientation;
+
+    /**
+     * Returns the move tables, building them on first use.
+     *
+     * @return the move tables
+     */
+    public static synchronized MoveTables get() {
+        if (instance == null) {
+            instance = new MoveTables();
+        }
+        return instance;
+    }
+
+    private MoveTables() {
+        moves = TwistTable.moves(CubieCube.SIZE);
+
+        cornerOrientation = new short[CubieCube.CORNER_ORIENTATIONS * moves];
+        edgeOrientation = new short[CubieCube.EDGE_ORIENTATIONS * moves];
+
+        CubieCube cube = new CubieCube();
+
+        for (int coordinate = 0; coordinate < CubieCube.CORNER_ORIENTATIONS; coordinate++) {
+            for (int move = 0; move < moves; move++) {
+                cube.setCornerOrientation(coordinate);
+                cube.twist(move);
+                cornerOrientation[(coordinate * moves) + move] = (short) cube
+                        .getCornerOrientation();
+            }
+        }
+
+        for (int coordinate = 0; coordinate < CubieCube.EDGE_ORIENTATIONS; coordinate++) {
+            for (int move = 0; move < moves; move++) {
+                cube.setEdgeOrientation(coordinate);
+                cube.twist(move);
+                edgeOrientation[(coordinate * moves) + move] = (short) cube
+                        .getEdgeOrientation();
+            }
+        }
+    }
+
+    /**
+     * Corner orientation coordinate after a move.
+     *
+     * @param coordinate
+     *            corner orientation coordinate before the move
+     * @param move
+     *            number of the move, see TwistTable
+     * @return corner orientation coordinate after the move
+     */
+    public int cornerOrientation(int coordinate, int move) {
+        return cornerOrientation[(coordinate * moves) + move];
+    }
+
+    /**
+     * Edge orientation coordinate after a move.
+     *
+     * @param coordinate
+     *            edge orientation coordinate before the move
+     * @param move
+     *            number of the move, see TwistTable
+     * @return edge orientation coordinate after the move
+     */
+    public int edgeOrientation(int coordinate, int move) {
+        return edgeOrientation[(coordinate * moves) + move];
+    }
+}
@@ -95,6 +95,7 @@ public class Node{
         } else {
             new Worker(master, 2).run();
         }
+        Rubiks.closeFrontiers();
 
         if (master.equals(ibis.identifier())){
             System.err.println("Solving cube took " + totalTime + " milliseconds");
@@ -0,0 +1,280 @@
+package rubiks.ipl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Twist tables for cubes packed in three longs. With 3 bits per element a side
+ * of a 3x3x3 cube takes 27 bits, so two sides fit in a single long:
+ *
+ * <pre>
+ * word 0: TOP   (bits 0..26), LEFT  (bits 27..53)
+ * word 1: FRONT (bits 0..26), RIGHT (bits 27..53)
+ * word 2: BACK  (bits 0..26), BOTTOM (bits 27..53)
+ * </pre>
+ *
+ * Within a side, elements are not stored row by row, but in clockwise order
+ * around the side starting at the top left corner, with the center (if any)
+ * last. Rotating a side, or moving elements between sides with a different
+ * orientation, then only rotates this ring of elements, which keeps the number
+ * of different shifts needed per twist low.
+ *
+ * A twist moves elements between and within these words. All elements which
+ * move from the same source word to the same target word over the same
+ * distance are moved together with a single mask and shift, so a twist is a
+ * short sequence of mask/shift/or operations per word instead of a loop over
+ * all elements. The operations are derived from the permutations in
+ * TwistTable, once per cube size.
+ */
+final class PackedTable {
+
+    // largest cube for which two sides fit in a single long
+    static final int MAX_SIZE = 3;
+
+    static final int WORDS = 3;
+
+    static final int BITS = 3;
+
+    private static final Map<Integer, PackedTable> tables = new HashMap<Integer, PackedTable>();
+
+    private final int sideSize;
+
+    // number of bits used by a single side
+    private final int sideBits;
+
+    // position of each element of a side in the ring of elements
+    private final int[] ring;
+
+    // 001001...001 pattern for a full side, times a color gives a solved side
+    private final long repeat;
+
+    // masks, shifts and sources for each move. For each move ranges[target *
+    // WORDS + source] is the first operation moving elements from the source
+    // word into the target word.
+    private final long[][] masks;
+
+    private final int[][] shifts;
+
+    private final int[][] ranges;
+
+    /**
+     * Returns if cubes of the given size can be packed.
+     *
+     * @param size
+     *            size of the cube
+     * @return true if cubes of this size fit in three longs.
+     */
+    static boolean supports(int size) {
+        return size > 1 && size <= MAX_SIZE;
+    }
+
+    /**
+     * Returns the (shared) table for cubes of the given size, building it on
+     * first use.
+     *
+     * @param size
+     *            size of the cube
+     * @return the packed twist table for the given size
+     */
+    static PackedTable forSize(int size) {
+        synchronized (tables) {
+            PackedTable result = tables.get(size);
+            if (result == null) {
+                result = new PackedTable(TwistTable.forSize(size));
+                tables.put(size, result);
+            }
+            return result;
+        }
+    }
+
+    private PackedTable(TwistTable twistTable) {
+        int size = twistTable.getSize();
+        int moves = TwistTable.moves(size);
+
+        sideSize = size * size;
+        sideBits = sideSize * BITS;
+
+        ring = new int[sideSize];
+        int position = 0;
+        for (int column = 0; column < size; column++) {
+            ring[column] = position++;
+        }
+        for (int row = 1; row < size; row++) {
+            ring[(row * size) + size - 1] = position++;
+        }
+        for (int column = size - 2; column >= 0; column--) {
+            ring[((size - 1) * size) + column] = position++;
+        }
+        for (int row = size - 2; row > 0; row--) {
+            ring[row * size] = position++;
+        }
+        // center (only for odd sizes) goes last
+        for (int element = 0; element < sideSize; element++) {
+            if (element != 0 && ring[element] == 0) {
+                ring[element] = position++;
+            }
+        }
+
+        long pattern = 0;
+        for (int element = 0; element < sideSize; element++) {
+            pattern |= 1L << (element * BITS);
+        }
+        repeat = pattern;
+
+        masks = new long[moves][];
+        shifts = new int[moves][];
+        ranges = new int[moves][];
+
+        for (int move = 0; move < moves; move++) {
+            int[] permutation = twistTable.permutation(move);
+
+            // collect a mask for each (target, source, shift) combination
+            Map<Long, Long> operations = new HashMap<Long, Long>();
+            for (int index = 0; index < permutation.length; index++) {
+                int from = permutation[index];
+                int shift = bit(index) - bit(from);
+                long key = (((word(index) * WORDS) + word(from)) * 128L)
+                        + shift + 64;
+
+                Long mask = operations.get(key);
+                operations.put(key, (mask == null ? 0 : mask)
+                        | (7L << bit(from)));
+            }
+
+            masks[move] = new long[operations.size()];
+            shifts[move] = new int[operations.size()];
+            ranges[move] = new int[(WORDS * WORDS) + 1];
+
+            int next = 0;
+            for (int i = 0; i < WORDS * WORDS; i++) {
+                ranges[move][i] = next;
+                for (Map.Entry<Long, Long> operation : operations.entrySet()) {
+                    long key = operation.getKey();
+                    if (key / 128 == i) {
+                        masks[move][next] = operation.getValue();
+                        shifts[move][next] = (int) (key % 128) - 64;
+                        next++;
+                    }
+                }
+            }
+            ranges[move][WORDS * WORDS] = next;
+        }
+    }
+
+    /**
+     * Word an element is stored in.
+     *
+     * @param index
+     *            position of the element in the (unpacked) data array
+     * @return the word containing the element
+     */
+    int word(int index) {
+        return (index / sideSize) / 2;
+    }
+
+    /**
+     * Position of an element within its word.
+     *
+     * @param index
+     *            position of the element in the (unpacked) data array
+     * @return the lowest bit of the element
+     */
+    int bit(int index) {
+        int side = index / sideSize;
+        int element = index % sideSize;
+
+        return ((side % 2) * sideBits) + (ring[element] * BITS);
+    }
+
+    /**
+     * Packs one word of a cube.
+     *
+     * @param data
+     *            all elements of the cube
+     * @param word
+     *            word to pack
+     * @return the packed word
+     */
+    long pack(byte[] data, int word) {
+        long result = 0;
+        for (int index = 0; index < data.length; index++) {
+            if (word(index) == word) {
+                result |= ((long) data[index]) << bit(index);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes one word of a cube after a twist.
+     *
+     * @param move
+     *            number of the move
+     * @param target
+     *            word to compute
+     * @param word0
+     *            first word before the twist
+     * @param word1
+     *            second word before the twist
+     * @param word2
+     *            third word before the twist
+     * @return the target word after the twist
+     */
+    long twist(int move, int target, long word0, long word1, long word2) {
+        long[] masks = this.masks[move];
+        int[] shifts = this.shifts[move];
+        int[] ranges = this.ranges[move];
+        int first = target * WORDS;
+
+        return gather(word0, masks, shifts, ranges[first], ranges[first + 1])
+                | gather(word1, masks, shifts, ranges[first + 1],
+                        ranges[first + 2])
+                | gather(word2, masks, shifts, ranges[first + 2],
+                        ranges[first + 3]);
+    }
+
+    /**
+     * Returns if both sides stored in the given word are a single color.
+     *
+     * @param word
+     *            packed word
+     * @return true if both sides in this word are solved
+     */
+    boolean isSolved(long word) {
+        long low = (word & 7) * repeat;
+        long high = ((word >>> sideBits) & 7) * repeat;
+
+        return word == (low | (high << sideBits));
+    }
+
+    /**
+     * Hash of a packed cube. The three words are the complete state of the
+     * cube, so these are simply mixed together.
+     *
+     * @param word0
+     *            first word
+     * @param word1
+     *            second word
+     * @param word2
+     *            third word
+     * @return 64 bit hash of the cube
+     */
+    static long hash(long word0, long word1, long word2) {
+        long result = word0 * 0x9E3779B97F4A7C15L;
+        result = (result ^ word1) * 0xC2B2AE3D27D4EB4FL;
+        result = (result ^ word2) * 0x165667B19E3779F9L;
+        return result ^ (result >>> 32);
+    }
+
+    private static long gather(long word, long[] masks, int[] shifts,
+            int from, int to) {
+        long result = 0;
+        for (int i = from; i < to; i++) {
+            // masked bits never wrap around, so a rotate is a shift in either
+            // direction
+            result |= Long.rotateLeft(word & masks[i], shifts[i]);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,273 @@
+package rubiks.ipl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * All cubes within a few twists (the depth) of the solved cube, for
+ * perimeter search: a search stops as soon as the twists left within the bound
+ * are no more than the depth, and looks up the current cube in this table
+ * instead of searching the last twists.
+ *
+ * For every cube, the table holds its distance to the solved cube, and the
+ * number of shortest move sequences solving it. A search only counts the
+ * solutions of the first bound that has any, and then every cube it reaches
+ * with r twists left is at least r twists away from solved. So the number of
+ * solutions from a cube with r twists left is the number in the table if its
+ * distance is exactly r, and 0 otherwise.
+ *
+ * The table is an open addressing hash table, keyed by the packed elements of
+ * a cube (see Cube.getKey()). It is stored outside the Java heap, and written
+ * to a file per cube size and depth (in the directory DIRECTORY_PROPERTY, or
+ * the cache directory of DatabaseFile), which is memory mapped when used
+ * again.
+ */
+final class PerimeterTable {
+
+    // system property with the directory of the table files
+    static final String DIRECTORY_PROPERTY = "rubiks.perimeter";
+
+    private static final Map<String, PerimeterTable> tables = new HashMap<String, PerimeterTable>();
+
+    private final int size;
+
+    private final int depth;
+
+    // longs in the key of a cube of this size
+    private final int words;
+
+    // bytes per entry: the key, followed by (count << 8) | (distance + 1). An
+    // entry which is 0 there is empty
+    private final int entrySize;
+
+    private ByteBuffer entries;
+
+    // number of entries, always a power of two
+    private int capacity;
+
+    private int used;
+
+    /**
+     * Returns the (shared) table for cubes of the given size, building or
+     * loading it on first use.
+     *
+     * @param size
+     *            size of the cube
+     * @param depth
+     *            number of twists covered by the table
+     * @return the perimeter table
+     */
+    static PerimeterTable get(int size, int depth) {
+        synchronized (tables) {
+            String name = "rubiks-perimeter-" + size + "-" + depth + ".db";
+            PerimeterTable result = tables.get(name);
+            if (result == null) {
+                try {
+                    result = new PerimeterTable(size, depth, name);
+                } catch (IOException e) {
+                    throw new Error("cannot load perimeter table: " + e);
+                }
+                tables.put(name, result);
+            }
+            return result;
+        }
+    }
+
+    private PerimeterTable(int size, int depth, String name)
+            throws IOException {
+        this.size = size;
+        this.depth = depth;
+        words = new Cube(size).getKey().length;
+        entrySize = (words + 1) * 8;
+
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        File file = new File(directory == null ? DatabaseFile.directory()
+                : new File(directory), name);
+        String table = "perimeter-" + depth;
+        ByteBuffer mapped = DatabaseFile.map(file, table, size, -1);
+        long length = (mapped == null) ? 0 : mapped.capacity();
+
+        if (length > 0 && length % entrySize == 0
+                && Long.bitCount(length / entrySize) == 1) {
+            entries = mapped;
+            capacity = (int) (length / entrySize);
+        } else {
+            capacity = 1024;
+            entries = ByteBuffer.allocateDirect(capacity * entrySize);
+            build();
+
+            byte[] data = new byte[capacity * entrySize];
+            entries.position(0);
+            entries.get(data);
+            entries.position(0);
+            DatabaseFile.write(file, table, size, data);
+        }
+    }
+
+    /**
+     * Size of the cubes in this table.
+     *
+     * @return the size of the cubes
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Number of twists covered by this table.
+     *
+     * @return the depth of this table
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Number of shortest move sequences solving a cube in exactly the given
+     * number of twists.
+     *
+     * @param cube
+     *            cube to look up
+     * @param twists
+     *            number of twists left, at most the depth of this table
+     * @return number of shortest solutions of this length, 0 if the cube
+     *         cannot be solved in this number of twists, or can be solved in
+     *         fewer
+     */
+    long solutions(Cube cube, int twists) {
+        int entry = find(cube.getKey());
+        long info = entries.getLong((entry * entrySize) + (words * 8));
+
+        if (info == 0 || (info & 255) != twists + 1) {
+            return 0;
+        }
+        return info >>> 8;
+    }
+
+    // *** Only private functions ahead ***\\
+
+    /**
+     * Fills the table, searching all move sequences of each length in turn.
+     * Sequences which are not the shortest way to their cube are not
+     * extended.
+     */
+    private void build() {
+        Cube cube = new Cube(size);
+        MovePruning pruning = new MovePruning(cube);
+
+        for (int bound = 0; bound <= depth; bound++) {
+            cube.setBound(bound);
+            add(cube, pruning);
+        }
+    }
+
+    private void add(Cube cube, MovePruning pruning) {
+        long[] key = cube.getKey();
+        int entry = find(key);
+        int offset = (entry * entrySize) + (words * 8);
+        long info = entries.getLong(offset);
+        int twists = cube.getTwists();
+
+        if (twists == cube.getBound()) {
+            // the weight counts all orderings of this move sequence
+            if (info == 0) {
+                for (int word = 0; word < words; word++) {
+                    entries.putLong((entry * entrySize) + (word * 8),
+                            key[word]);
+                }
+                entries.putLong(offset, (pruning.weight() << 8) + twists + 1);
+                used++;
+                if (used * 2 > capacity) {
+                    grow();
+                }
+            } else if ((info & 255) == twists + 1) {
+                entries.putLong(offset, info + (pruning.weight() << 8));
+            }
+            return;
+        }
+
+        if ((info & 255) != twists + 1) {
+            // a shorter sequence leads to the same cube
+            return;
+        }
+
+        for (int move = 0; move < cube.getMoves(); move++) {
+            if (!pruning.allows(move)) {
+                continue;
+            }
+
+            cube.twist(move);
+            pruning.push(move);
+
+            add(cube, pruning);
+
+            pruning.pop();
+            cube.untwist(move);
+        }
+    }
+
+    /**
+     * Finds the entry of a key, or the empty entry where it should go.
+     */
+    private int find(long[] key) {
+        long hash = 0;
+        for (int word = 0; word < words; word++) {
+            hash = (hash ^ key[word]) * 0x9E3779B97F4A7C15L;
+        }
+        int entry = (int) (hash ^ (hash >>> 32)) & (capacity - 1);
+
+        while (true) {
+            int offset = entry * entrySize;
+            if (entries.getLong(offset + (words * 8)) == 0) {
+                return entry;
+            }
+
+            boolean equal = true;
+            for (int word = 0; word < words && equal; word++) {
+                equal = entries.getLong(offset + (word * 8)) == key[word];
+            }
+            if (equal) {
+                return entry;
+            }
+
+            entry = (entry + 1) & (capacity - 1);
+        }
+    }
+
+    /**
+     * Doubles the capacity of the table, moving all entries.
+     */
+    private void grow() {
+        if ((long) capacity * 2 * entrySize > Integer.MAX_VALUE) {
+            throw new Error("perimeter table too large, use a smaller depth");
+        }
+
+        ByteBuffer old = entries;
+        int oldCapacity = capacity;
+
+        capacity *= 2;
+        entries = ByteBuffer.allocateDirect(capacity * entrySize);
+
+        long[] key = new long[words];
+        for (int entry = 0; entry < oldCapacity; entry++) {
+            int offset = entry * entrySize;
+            long info = old.getLong(offset + (words * 8));
+            if (info == 0) {
+                continue;
+            }
+            for (int word = 0; word < words; word++) {
+                key[word] = old.getLong(offset + (word * 8));
+            }
+
+            int target = find(key) * entrySize;
+            for (int word = 0; word < words; word++) {
+                entries.putLong(target + (word * 8), key[word]);
+            }
+            entries.putLong(target + (words * 8), info);
+        }
+    }
+
+}
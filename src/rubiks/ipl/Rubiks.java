@@ -1,5 +1,9 @@
 package rubiks.ipl;
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Solver for rubik's cube puzzle.
@@ -10,106 +14,551 @@ import java.util.LinkedList;
 public class Rubiks {
 
     public static final boolean PRINT_SOLUTION = false;
+
+    // cubes near the solved cube, null if not used (see --perimeter)
+    private static PerimeterTable perimeter = null;
+
+    // results of earlier searches, null if not used (see --tt-mb)
+    private static TranspositionTable transpositions = null;
+
+    // solution counts of earlier searches, null if not used (see --memo-mb)
+    private static TranspositionTable memo = null;
+
+    // memory of the frontiers of a node, 0 if frontiers are not used (see
+    // --frontier-mb)
+    private static int frontierMegabytes = 0;
+
+    // stop at the first solution found (see --first), and if so, whether a
+    // solution has been found by any thread (or node)
+    private static boolean first = false;
+
+    private static volatile boolean cancelled = false;
+
+    // writes the solutions found, null if not used (see --solutions)
+    private static SolutionWriter solutionWriter = null;
+
+    // estimates the size of the search, null if not used (see --estimate)
+    private static TreeEstimate estimate = null;
+
+    // bounds estimated before the search starts
+    private static final int PREDICTED_BOUNDS = 4;
+
+    // deepest split of the search into jobs, see splitDepth()
+    private static final int MAX_SPLIT_DEPTH = 4;
+
+    // frontier of each job handed out by the master, see nodeSolve
+    private static final Map<Integer, Frontier> frontiers = new HashMap<Integer, Frontier>();
+
+    // memory shared by the frontiers of all jobs of this node
+    private static AtomicLong frontierBudget = null;
+
+    // working cubes jobs are decoded into (see CubeStore), of each thread
+    private static final ThreadLocal<LinkedList<Cube>> workingCubes = new ThreadLocal<LinkedList<Cube>>() {
+        protected LinkedList<Cube> initialValue() {
+            return new LinkedList<Cube>();
+        }
+    };
     public static int workItems = 0;
 
+    /*Solutions the master found itself, within the split depth, and their
+     *number of steps (see solveAtMaster)*/
+    private static int masterSolutions = 0;
+    private static int masterSteps = 0;
+
     public static int getWorkItems(){
         return workItems;
     }
 
+    public static int getMasterSolutions(){
+        return masterSolutions;
+    }
+
+    public static int getMasterSteps(){
+        return masterSteps;
+    }
+
+    /*Only the first solution is searched for (--first)*/
+    public static boolean isFirst(){
+        return first;
+    }
+
+    /*Stops all searches of this node, as a solution has been found*/
+    public static void cancel(){
+        cancelled = true;
+    }
+
+    public static boolean isCancelled(){
+        return cancelled;
+    }
+
+    /*Prints the estimated size and time of the search of a bound to standard
+     *error (--estimate)*/
+    public static void predict(int bound){
+        if (estimate != null){
+            System.err.println(estimate.predict(bound));
+        }
+    }
+
+    /*Records the time the search of a bound took (--estimate)*/
+    public static void searched(int bound, long milliseconds){
+        if (estimate != null){
+            estimate.searched(bound, milliseconds);
+        }
+    }
+
+    /*Depth to which the master splits the search, so there are at least the
+     *given number of jobs (--estimate). Otherwise always 2*/
+    public static int splitDepth(int jobs){
+        if (estimate == null){
+            return 2;
+        }
+        return estimate.splitDepth(jobs, MAX_SPLIT_DEPTH);
+    }
+
     /*Function that generates children up to specified depth
-     *Fixed depth =2
-     *To be used by master for generating initial jobs for workers
+     *(2 unless picked by splitDepth())
+     *To be used by master for generating initial jobs for workers.
+     *If the cube can be solved within the split depth, the master counts
+     *the solutions of the fewest steps itself (see getMasterSolutions())
+     *and hands out no jobs at all. The bound of these steps is printed by
+     *the master, the bounds before it are printed here
      */
-    public static LinkedList<Cube> solveAtMaster(Cube cube, CubeCache cache, int depth){
-        int generatedChildren = 0;
+    public static CubeStore solveAtMaster(Cube cube, CubeArena arena, int depth){
         System.out.print("Bound now:");
+        CubeStore jobs = new CubeStore(cube, depth);
+        MovePruning pruning = new MovePruning(cube);
+        long[] solved = new long[depth + 1];
         if (cube.isSolved()){
-            System.out.println();
-            System.out.println("Solving cube possible in 1 ways of 0 steps");
+            solved[0] = 1;
         }
-        if (cube.getTwists() >= cube.getBound()) {
+        split(cube, arena, pruning, depth, jobs, solved);
+        if (estimate != null){
+            System.err.println(arena);
+        }
+
+        masterSteps = 0;
+        while (masterSteps <= depth && solved[masterSteps] == 0){
+            masterSteps++;
+        }
+        if (masterSteps <= depth){
+            masterSolutions = (int) solved[masterSteps];
+            jobs = new CubeStore(cube, depth);
+        } else {
+            masterSolutions = 0;
+            masterSteps = depth;
+        }
+
+        for (int bound = 1; bound < masterSteps; bound++){
+            System.out.print(" " + bound);
         }
-        LinkedList<Cube> tempQueue = new LinkedList<Cube>();
-        Cube[] children = cube.generateChildren(cache);
-        System.out.print(" " + 1);
-        for (Cube child : children){
-            if (cube.isSolved()){
-                System.out.println();
-                System.out.println("Solving cube possible in 1 ways of 1 steps");
+        if (masterSolutions == 0){
+            System.out.print(" " + depth);
+        }
+        workItems = jobs.size();
+        return jobs;
+    }
+
+    /*Adds the cubes reached by all move sequences of the given length which
+     *the search needs to try (see MovePruning) to the jobs. The children of
+     *each ply are generated in the arena, the jobs are only stored as their
+     *moves (see CubeStore). Solved cubes on the way are counted per number
+     *of twists, with the orderings they stand for
+     */
+    private static void split(Cube cube, CubeArena arena,
+            MovePruning pruning, int depth, CubeStore jobs, long[] solved){
+        Cube[] children = cube.generateChildren(arena, cube.getTwists());
+        // children are generated in the order of their move numbers
+        for (int move = 0; move < children.length; move++){
+            Cube child = children[move];
+            if (!pruning.allows(move)) {
+                // never part of a shortest solution, or counted by another
+                // ordering of the same twists
+                continue;
+            }
+            pruning.push(move);
+            if (child.isSolved()){
+                solved[child.getTwists()] += pruning.weight();
             }
+            if (child.getTwists() >= depth){
+                child.setBound(depth);
+                jobs.add(child);
+            } else {
+                split(child, arena, pruning, depth, jobs, solved);
+            }
+            pruning.pop();
+        }
+    }
 
-            Cube[] grandChildren = child.generateChildren(cache);
 
-            for (Cube grandChild : grandChildren){
-                if (cube.isSolved()){
-                    System.out.println();
-                    System.out.println("Solving cube possible in 1 ways of 2 steps");
+    /*Replaces solve method for ipl version. Searches a job handed out by
+     *the master up to the current bound of all nodes. The job is decoded into
+     *a working cube of this thread, which is free again when this returns.
+     *The bound of the job is the last bound searched for it in an earlier
+     *round. That search found no solutions, or all nodes would have stopped,
+     *so only the bounds after it are searched
+     */
+    public static int nodeSolve(CubeStore jobs, int job, int currentBound, int solvedAtMaster) {
+        LinkedList<Cube> free = workingCubes.get();
+        Cube cube = free.isEmpty() ? new Cube(jobs.getCubeSize()) : free.pop();
+        jobs.get(job, cube);
+
+        int bound = Math.max(cube.getBound(), solvedAtMaster);
+        int result = 0;
+        MovePruning pruning = new MovePruning(cube);
+        Heuristic heuristic = new Heuristic(cube);
+
+        Frontier frontier = null;
+        if (frontierMegabytes > 0) {
+            synchronized (frontiers) {
+                frontier = frontiers.get(job);
+                if (frontier == null) {
+                    if (frontierBudget == null) {
+                        frontierBudget = Frontier.budget(frontierMegabytes);
+                    }
+                    frontier = new Frontier(cube, frontierBudget);
+                    frontiers.put(job, frontier);
                 }
-                grandChild.setBound(depth);
-                tempQueue.add(grandChild);
-                generatedChildren++;
             }
+        }
+
+        while (result == 0 && bound < currentBound && !cancelled) {
+            bound++;
+            cube.setBound(bound);
+
+            result += search(cube, pruning, heuristic, frontier);
+        }
 
+        if (first && result > 0) {
+            cancelled = true;
+        }
+
+        jobs.setBound(job, cube.getBound());
+        free.push(cube);
+        return result;
+    }
+    /*Removes the files of the frontiers of all jobs of this node, once
+     *the search has ended
+     */
+    public static void closeFrontiers() {
+        synchronized (frontiers) {
+            for (Frontier frontier : frontiers.values()) {
+                frontier.close();
+            }
+            frontiers.clear();
         }
-        System.out.print(" " + depth);
-        workItems = generatedChildren;
-        return tempQueue;
     }
 
-    /*Replaces solve method for ipl version*/
-    public static int nodeSolve(Cube cube, int currentBound, int solvedAtMaster) {
-        CubeCache cache = new CubeCache(cube.getSize());
-        int bound = 0;
+    /**
+     * Recursive function to find a solution for a given cube. Only searches to
+     * the bound set in the cube object. The cube is twisted in place and
+     * untwisted again after each child, so no new cube objects are needed.
+     * When this function returns the cube is back in its original state.
+     * Move sequences which cannot be part of a shortest solution, or which
+     * only reorder commuting twists, are skipped, see MovePruning. Cubes which
+     * need more twists than the bound allows according to the heuristic are
+     * not searched any further (IDA*). If a perimeter table is used, the
+     * last twists are not searched but looked up in this table. Cubes found
+     * in the transposition table (if used) are not searched again. All cubes
+     * at which the search stops are added to the frontier (if used). When
+     * only the first solution is needed, the most promising twists are tried
+     * first, and the search stops as soon as any solution is found. Solutions
+     * are written to the solution writer (if used).
+     *
+     * @param cube
+     *            cube to solve
+     * @param pruning
+     *            pruning state of the moves done so far
+     * @param heuristic
+     *            lower bound on the twists still needed
+     * @param frontier
+     *            frontier of the next bound, or null
+     * @return the number of solutions found
+     */
+    private static int solutions(Cube cube, MovePruning pruning,
+            Heuristic heuristic, Frontier frontier) {
+        if (cube.isSolved()) {
+            if (solutionWriter != null) {
+                solutionWriter.write(cube, pruning.weight());
+            }
+            // also counts all reorderings of this solution
+            return (int) pruning.weight();
+        }
+
+        if (cube.getTwists() >= cube.getBound()) {
+            return stop(cube, frontier, 0);
+        }
+
+        if (cube.getTwists() + heuristic.estimate() > cube.getBound()) {
+            return stop(cube, frontier, 0);
+        }
+
+        int left = cube.getBound() - cube.getTwists();
+        if (perimeter != null && left <= perimeter.getDepth()) {
+            return stop(cube, frontier, (int) (pruning.weight() * perimeter
+                    .solutions(cube, left)));
+        }
+
+        // cubes with a single twist left are cheaper to search than to look up
+        boolean transposition = transpositions != null && left > 1;
+        long key = 0;
+        if (transposition) {
+            key = TranspositionTable.key(cube, pruning);
+            long known = transpositions.get(key, left, cube.getBound(),
+                    pruning.weight());
+            if (known >= 0) {
+                return stop(cube, frontier, (int) known);
+            }
+        }
+
         int result = 0;
+        int moves = cube.getMoves();
+        int[] order = first ? order(cube, heuristic) : null;
+
+        // try all possible twists of this cube
+        for (int i = 0; i < moves; i++) {
+            int move = (order == null) ? i : order[i];
+            if (!pruning.allows(move)) {
+                continue;
+            }
 
+            cube.twist(move);
+            pruning.push(move);
+            heuristic.push(move);
 
-        while (result == 0 && (bound + solvedAtMaster)  < currentBound) {
-            bound++;
-            cube.setBound(solvedAtMaster + bound);
+            // recursion step
+            result += solutions(cube, pruning, heuristic, frontier);
+
+            // undo twist before trying the next one
+            heuristic.pop();
+            pruning.pop();
+            cube.untwist(move);
+
+            if (first && (result > 0 || cancelled)) {
+                // found here, or by another thread
+                cancelled = true;
+                break;
+            }
+        }
 
-            result += solutions(cube, cache);
+        // an unfinished search is not remembered
+        if (transposition && !cancelled) {
+            transpositions.put(key, left, cube.getBound(), pruning.weight(),
+                    result);
         }
 
         return result;
     }
+
     /**
-     * Recursive function to find a solution for a given cube. Only searches to
-     * the bound set in the cube object.
+     * Adds a cube at which the search stops to the frontier, if any.
+     *
+     * @param cube
+     *            cube at which the search stops
+     * @param frontier
+     *            frontier of the next bound, or null
+     * @param result
+     *            solutions found from this cube
+     * @return the solutions found from this cube
+     */
+    private static int stop(Cube cube, Frontier frontier, int result) {
+        if (frontier != null) {
+            frontier.add(cube);
+        }
+        return result;
+    }
+
+    /**
+     * Searches the bound set in the cube object, in the way selected on the
+     * command line.
+     *
+     * @param cube
+     *            cube to solve
+     * @param pruning
+     *            pruning state of the moves done so far
+     * @param heuristic
+     *            lower bound on the twists still needed
+     * @param frontier
+     *            frontier of the previous bound, or null
+     * @return the number of solutions found
+     */
+    private static int search(Cube cube, MovePruning pruning,
+            Heuristic heuristic, Frontier frontier) {
+        if (frontier != null) {
+            return frontierSolutions(cube, pruning, heuristic, frontier);
+        }
+        if (memo != null) {
+            return (int) (pruning.weight() * count(cube, heuristic, -1));
+        }
+        return solutions(cube, pruning, heuristic, null);
+    }
+
+    /**
+     * Searches the bound set in the cube object like solutions(), but only
+     * from the cubes in the frontier of the previous bound: every move
+     * sequence the search of this bound tries starts with exactly one of
+     * these. The cubes at which this search stops form the frontier of the
+     * next bound. Consecutive cubes of the frontier usually share most of
+     * their moves, so only the moves after the shared ones are undone and
+     * done again.
+     *
+     * @param cube
+     *            cube to solve
+     * @param pruning
+     *            pruning state of the moves done so far
+     * @param heuristic
+     *            lower bound on the twists still needed
+     * @param frontier
+     *            frontier of the previous bound
+     * @return the number of solutions found
+     */
+    private static int frontierSolutions(Cube cube, MovePruning pruning,
+            Heuristic heuristic, Frontier frontier) {
+        int result = 0;
+        int[] moves = new int[cube.getBound()];
+        int[] done = new int[cube.getBound()];
+        int depth = 0;
+        int length;
+
+        while ((length = frontier.next(moves)) >= 0) {
+            int shared = 0;
+            while (shared < depth && shared < length
+                    && done[shared] == moves[shared]) {
+                shared++;
+            }
+
+            while (depth > shared) {
+                depth--;
+                heuristic.pop();
+                pruning.pop();
+                cube.untwist(done[depth]);
+            }
+            while (depth < length) {
+                cube.twist(moves[depth]);
+                pruning.push(moves[depth]);
+                heuristic.push(moves[depth]);
+                done[depth] = moves[depth];
+                depth++;
+            }
+
+            result += solutions(cube, pruning, heuristic, frontier);
+        }
+
+        while (depth > 0) {
+            depth--;
+            heuristic.pop();
+            pruning.pop();
+            cube.untwist(done[depth]);
+        }
+
+        frontier.advance();
+        return result;
+    }
+
+    /**
+     * Counts the solutions of a cube within the bound set in the cube object,
+     * like solutions(), but searching every order of the twists instead of
+     * using MovePruning. The number of solutions then only depends on the cube
+     * and the number of twists left, so it is remembered for every cube
+     * searched (see --memo-mb), and cubes reached again by another order of
+     * the same twists are not searched again.
+     *
+     * Only the solutions of the first bound which has any are counted, so a
+     * cube with r twists left is never solved in fewer than r twists. Its
+     * solutions never start by undoing the previous twist, and the count is
+     * the same for every search which reaches it, whatever its bound.
      *
      * @param cube
      *            cube to solve
-     * @param cache
-     *            cache of cubes used for new cube objects
+     * @param heuristic
+     *            lower bound on the twists still needed
+     * @param previous
+     *            last move done, or -1 if none
      * @return the number of solutions found
      */
-    private static int solutions(Cube cube, CubeCache cache) {
+    private static long count(Cube cube, Heuristic heuristic, int previous) {
         if (cube.isSolved()) {
+            if (solutionWriter != null) {
+                solutionWriter.write(cube, 1);
+            }
             return 1;
         }
 
-        if (cube.getTwists() >= cube.getBound()) {
+        int left = cube.getBound() - cube.getTwists();
+        if (left <= 0 || heuristic.estimate() > left) {
             return 0;
         }
 
-        // generate all possible cubes from this one by twisting it in
-        // every possible way. Gets new objects from the cache
-        Cube[] children = cube.generateChildren(cache);
+        if (perimeter != null && left <= perimeter.getDepth()) {
+            return perimeter.solutions(cube, left);
+        }
 
-        int result = 0;
+        long key = TranspositionTable.key(cube);
+        long known = memo.get(key, left, 0, 1);
+        if (known >= 0) {
+            return known;
+        }
 
-        for (Cube child : children) {
-            // recursion step
-            int childSolutions = solutions(child, cache);
-            if (childSolutions > 0) {
-                result += childSolutions;
-                if (PRINT_SOLUTION) {
-                    child.print(System.err);
-                }
+        long result = 0;
+        int moves = cube.getMoves();
+        int[] order = first ? order(cube, heuristic) : null;
+
+        for (int i = 0; i < moves; i++) {
+            int move = (order == null) ? i : order[i];
+            if (previous >= 0 && move == TwistTable.inverseMove(previous)) {
+                continue;
             }
-            // put child object in cache
-            cache.put(child);
+
+            cube.twist(move);
+            heuristic.push(move);
+
+            result += count(cube, heuristic, move);
+
+            heuristic.pop();
+            cube.untwist(move);
+
+            if (first && (result > 0 || cancelled)) {
+                cancelled = true;
+                break;
+            }
+        }
+
+        if (!cancelled) {
+            memo.put(key, left, 0, 1, result);
         }
+        return result;
+    }
 
+    /**
+     * Orders the moves of a cube so that the moves to the cubes which are
+     * closest to solved according to the heuristic come first. Moves with
+     * the same estimate keep their order.
+     *
+     * @param cube
+     *            cube to twist
+     * @param heuristic
+     *            lower bound on the twists still needed
+     * @return all moves, most promising first
+     */
+    private static int[] order(Cube cube, Heuristic heuristic) {
+        int moves = cube.getMoves();
+        int[] result = new int[moves];
+        int[] estimates = new int[moves];
+
+        for (int move = 0; move < moves; move++) {
+            heuristic.push(move);
+            int estimate = heuristic.estimate();
+            heuristic.pop();
+
+            // insertion sort, there are only a few moves
+            int i = move;
+            while (i > 0 && estimates[i - 1] > estimate) {
+                result[i] = result[i - 1];
+                estimates[i] = estimates[i - 1];
+                i--;
+            }
+            result[i] = move;
+            estimates[i] = estimate;
+        }
         return result;
     }
 
@@ -122,11 +571,14 @@ public class Rubiks {
      *            the cube to solve
      */
     public static void solve(Cube cube) {
-        // cache used for cube objects. Doing new Cube() for every move
-        // overloads the garbage collector
-        CubeCache cache = new CubeCache(cube.getSize());
         int bound = 0;
         int result = 0;
+        MovePruning pruning = new MovePruning(cube);
+        Heuristic heuristic = new Heuristic(cube);
+        Frontier frontier = null;
+        if (frontierMegabytes > 0) {
+            frontier = new Frontier(cube, frontierMegabytes);
+        }
 
         System.out.print("Bound now:");
 
@@ -135,12 +587,20 @@ public class Rubiks {
             cube.setBound(bound);
 
             System.out.print(" " + bound);
-            result = solutions(cube, cache);
+            result = search(cube, pruning, heuristic, frontier);
+        }
+
+        if (frontier != null) {
+            frontier.close();
         }
 
         System.out.println();
-        System.out.println("Solving cube possible in " + result + " ways of "
-                + bound + " steps");
+        if (first) {
+            System.out.println("Solving cube possible in " + bound + " steps");
+        } else {
+            System.out.println("Solving cube possible in " + result
+                    + " ways of " + bound + " steps");
+        }
     }
 
     public static void printUsage() {
@@ -164,6 +624,20 @@ public class Rubiks {
         System.out.println("");
         System.out
                 .println("--file FILE_NAME\t\tLoad cube from given file instead of generating it");
+        System.out
+                .println("--perimeter DEPTH\t\tLook up the last DEPTH twists in a table instead of searching them (default: 0, off)");
+        System.out
+                .println("--tt-mb MEGABYTES\t\tMemory used to remember searched cubes (default: 0, off)");
+        System.out
+                .println("--memo-mb MEGABYTES\t\tCount solutions in every order of the twists, remembering the counts in this much memory (default: 0, off)");
+        System.out
+                .println("--frontier-mb MEGABYTES\t\tContinue each bound from where the previous one stopped, keeping this much of it in memory (default: 0, off)");
+        System.out
+                .println("--first\t\tStop at the first optimal solution instead of counting all of them");
+        System.out
+                .println("--solutions FILE_NAME\t\tWrite each solution found to this file, as a line with its weight (the number of orderings of commuting twists it stands for) and its moves (not with --perimeter, --tt-mb or --memo-mb)");
+        System.out
+                .println("--estimate PROBES\t\tEstimate the size and time of each bound on standard error, with this many random probes (default: 0, off)");
         System.out.println("");
     }
 
@@ -181,6 +655,11 @@ public class Rubiks {
         int twists = 11;
         int seed = 0;
         String fileName = null;
+        int perimeterDepth = 0;
+        int transpositionMegabytes = 0;
+        int memoMegabytes = 0;
+        String solutionsFileName = null;
+        int estimateProbes = 0;
 
         // number of threads used to solve puzzle
         // (not used in sequential version)
@@ -198,6 +677,26 @@ public class Rubiks {
             } else if (arguments[i].equalsIgnoreCase("--file")) {
                 i++;
                 fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--perimeter")) {
+                i++;
+                perimeterDepth = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--tt-mb")) {
+                i++;
+                transpositionMegabytes = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--memo-mb")) {
+                i++;
+                memoMegabytes = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--frontier-mb")) {
+                i++;
+                frontierMegabytes = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--first")) {
+                first = true;
+            } else if (arguments[i].equalsIgnoreCase("--solutions")) {
+                i++;
+                solutionsFileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--estimate")) {
+                i++;
+                estimateProbes = Integer.parseInt(arguments[i]);
             } else if (arguments[i].equalsIgnoreCase("--help") || arguments[i].equalsIgnoreCase("-h")) {
                 printUsage();
                 System.exit(0);
@@ -208,6 +707,15 @@ public class Rubiks {
             }
         }
 
+        // solutions found through a table are only counted, never seen
+        if ((solutionsFileName != null || PRINT_SOLUTION)
+                && (perimeterDepth > 0 || transpositionMegabytes > 0 || memoMegabytes > 0)) {
+            System.err
+                    .println("cannot write solutions with --perimeter, --tt-mb or --memo-mb");
+            printUsage();
+            System.exit(1);
+        }
+
         // create cube
         if (fileName == null) {
             cube = new Cube(size, twists, seed);
@@ -231,12 +739,45 @@ public class Rubiks {
         //long start = System.currentTimeMillis();
         //solve(cube);
         //long end = System.currentTimeMillis();
+        // build or load the pattern databases before timing the search
+        Heuristic.load(cube.getSize());
+        if (perimeterDepth > 0) {
+            perimeter = PerimeterTable.get(cube.getSize(), perimeterDepth);
+        }
+        if (transpositionMegabytes > 0) {
+            transpositions = new TranspositionTable(transpositionMegabytes);
+        }
+        if (memoMegabytes > 0) {
+            memo = new TranspositionTable(memoMegabytes);
+        }
+        if (solutionsFileName != null) {
+            try {
+                solutionWriter = new SolutionWriter(solutionsFileName);
+            } catch (IOException e) {
+                System.err.println("Cannot write solutions to file: " + e);
+                System.exit(1);
+            }
+        } else if (PRINT_SOLUTION) {
+            solutionWriter = new SolutionWriter(System.err);
+        }
+        if (estimateProbes > 0) {
+            estimate = new TreeEstimate(cube, estimateProbes);
+            int lowerBound = new Heuristic(cube).estimate();
+            for (int bound = lowerBound; bound < lowerBound + PREDICTED_BOUNDS; bound++) {
+                System.err.println(estimate.predict(bound));
+            }
+        }
+
         try{
             Node node = new Node (cube, size, twists, seed);
             node.run();
         } catch (Exception e){
             e.printStackTrace();
         }
+
+        if (solutionWriter != null) {
+            solutionWriter.close();
+        }
         // NOTE: this is printed to standard error! The rest of the output is
         // constant for each set of parameters. Printing this to standard error
         // makes the output of standard out comparable with "diff"
@@ -10,14 +10,16 @@ package rubiks.ipl;
  *  @author Vasileios Gkanasoulis VU ID:2617203
  */
 import ibis.ipl.*;
-import java.util.LinkedList;
 import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
 
 
 public class Worker {
-    LinkedList<Cube> workerQueue;
-    LinkedList<Cube> tempQueue;
+    /*Jobs of all nodes, this worker solves jobs wStart to wEnd*/
+    CubeStore workQueue;
     IbisIdentifier master;
+    /*Signals of the master other than CANCEL, with --first (see signalThread)*/
+    LinkedBlockingQueue<Integer> signals = null;
     static int bound;
     int terminationSignal = 0;
     int wStart = 0, wEnd = 0;
@@ -35,7 +37,6 @@ public class Worker {
     public Worker(IbisIdentifier mServer, int slvMaster) throws IOException {
         master=mServer;
         solvedAtMaster = slvMaster;
-        workerQueue = new LinkedList<Cube>();
         /*Init ports and enable connections*/
         recvCubePort = Node.ibis.createReceivePort(Node.workPort,"cube");
         recvCubePort.enableConnections();
@@ -50,8 +51,6 @@ public class Worker {
 
 
     public void run() throws IOException{
-        tempQueue = new LinkedList<Cube>();
-        workerQueue = new LinkedList<Cube>();
         /*Get my ID from master*/
         ReadMessage id_msg = recvSingleInfoPort.receive();
         Node.rank = id_msg.readInt();
@@ -63,17 +62,17 @@ public class Worker {
         Node.numNodes = node_msg.readInt();
         node_msg.finish();
 
-        try { //Get work list from master
-            ReadMessage q_msg = recvCubePort.receive();
-            tempQueue.addAll((LinkedList<Cube>) q_msg.readObject());
-            q_msg.finish();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        /*Get work list from master, the moves of each job from the initial cube*/
+        ReadMessage q_msg = recvCubePort.receive();
+        int jobDepth = q_msg.readInt();
+        byte[] jobData = new byte[q_msg.readInt()];
+        q_msg.readArray(jobData);
+        q_msg.finish();
+        workQueue = new CubeStore(Node.initCube, jobDepth, jobData);
 
         /*Figure out which cubes correspond to this worker*/
-        remainingCubes = tempQueue.size() % Node.numNodes;
-        cubesPerNode = (int) tempQueue.size() / Node.numNodes;
+        remainingCubes = workQueue.size() % Node.numNodes;
+        cubesPerNode = (int) workQueue.size() / Node.numNodes;
         for (int i = 0; i < Node.numNodes; i++){
             if(i <= remainingCubes) c_i = i;
             if (i == Node.rank){
@@ -88,22 +87,25 @@ public class Worker {
             }
         }
 
-        /*Get cubes that correspond to this worker*/
-        for (int w = wStart; w <= wEnd; w++){
-            workerQueue.add(tempQueue.get(w));
-        }
+        Node.bound = workQueue.getDepth();
+        /*The master may split deeper than 2 (--estimate)*/
+        solvedAtMaster = Node.bound;
 
-        Cube tempCube = workerQueue.peek();
-        Node.bound = tempCube.getBound();
 
+        /*With --first the master may cancel a bound at any time*/
+        if (Rubiks.isFirst()){
+            signals = new LinkedBlockingQueue<Integer>();
+            new signalThread().start();
+        }
 
         /*Start computing*/
         while(true){
 
             Node.bound++;
 
-            for (int c = 0; c < workerQueue.size(); c++){
-                Node.solutions += Rubiks.nodeSolve(workerQueue.get(c) , Node.bound, solvedAtMaster);
+            for (int job = wStart; job <= wEnd; job++){
+                if (Rubiks.isCancelled()) break;
+                Node.solutions += Rubiks.nodeSolve(workQueue, job, Node.bound, solvedAtMaster);
             }
 
 
@@ -113,9 +115,7 @@ public class Worker {
             sol_msg.finish();
 
             /*Receive term / cont signal from Master*/
-            ReadMessage signal_msg = recvInfoPort.receive();
-            terminationSignal = signal_msg.readInt();
-            signal_msg.finish();
+            terminationSignal = receiveSignal();
 
             if (terminationSignal == 1) break;
         }
@@ -124,4 +124,48 @@ public class Worker {
         recvInfoPort.close();
 
     }
-}
\ No newline at end of file
+
+
+/*Receives the next term / cont signal from the master*/
+private int receiveSignal() throws IOException{
+    if (signals != null){
+        try {
+            return signals.take();
+        } catch (InterruptedException e){
+            throw new IOException("interrupted while waiting for master: " + e);
+        }
+    }
+    ReadMessage signal_msg = recvInfoPort.receive();
+    int signal = signal_msg.readInt();
+    signal_msg.finish();
+    return signal;
+}
+
+/*Thread receiving all signals of the master (--first). A CANCEL stops the
+ *search of this node at once, other signals are passed on to run()*/
+public class signalThread extends Thread {
+
+    public void run(){
+        while(true){
+            int signal;
+            try {
+                ReadMessage signal_msg = recvInfoPort.receive();
+                signal = signal_msg.readInt();
+                signal_msg.finish();
+            } catch (IOException e){
+                e.printStackTrace();
+                return;
+            }
+
+            if (signal == Master.CANCEL){
+                Rubiks.cancel();
+            } else {
+                signals.add(signal);
+                if (signal == Master.TERMINATE) return;
+            }
+        }
+    }
+
+}
+
+}
@@ -1,5 +1,21 @@
 package rubiks.sequential;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * Solver for rubik's cube puzzle.
  *
@@ -10,45 +26,515 @@ public class Rubiks {
 
     public static final boolean PRINT_SOLUTION = false;
 
+    // cubes near the solved cube, null if not used (see --perimeter)
+    private static PerimeterTable perimeter = null;
+
+    // results of earlier searches, null if not used (see --tt-mb)
+    private static TranspositionTable transpositions = null;
+
+    // solution counts of earlier searches, null if not used (see --memo-mb)
+    private static TranspositionTable memo = null;
+
+    // memory of each frontier, 0 if frontiers are not used (see --frontier-mb)
+    private static int frontierMegabytes = 0;
+
+    // stop at the first solution found (see --first)
+    private static boolean first = false;
+
+    // writes the solutions found, null if not used (see --solutions)
+    private static SolutionWriter solutionWriter = null;
+
+    // estimates the size of the search, null if not used (see --estimate)
+    private static TreeEstimate estimate = null;
+
+    // bounds estimated before the search starts
+    private static final int PREDICTED_BOUNDS = 4;
+
+    // requests waiting for each thread of the service (see --serve)
+    private static final int QUEUE_PER_THREAD = 4;
+
+    // highest bound searched, 0 for no limit (see --max-bound)
+    private static int maxBound = 0;
+
+    // highest bound searched by the service, unless set with --max-bound.
+    // Cubes of colors which can never be solved are not all recognized up
+    // front, and would keep a thread of the service busy forever
+    private static final int SERVE_MAX_BOUND = 26;
+
+    // largest cubes, and most random twists, the service accepts. Larger
+    // ones could take all memory, and fail the requests of other threads too
+    private static final int SERVE_MAX_SIZE = 10;
+
+    private static final int SERVE_MAX_TWISTS = 1000;
+
+    // searches a single cube on several threads, null if not used (see
+    // --threads)
+    private static ForkJoinPool pool = null;
+
+    // set once a thread of the pool finds a solution, when only the first
+    // one is needed. Only one cube is searched at a time by the pool, the
+    // cubes of --batch and --serve (searched side by side) never set it
+    private static volatile boolean cancelled = false;
+
+    // subtrees with at most this many twists left are never split
+    private static final int MIN_SPLIT_LEFT = 5;
+
+    // subtrees are split while the thread has at most this many tasks
+    // waiting to be stolen
+    private static final int MAX_SURPLUS_TASKS = 3;
+
+    /**
+     * Line read by the service, and its number in the input.
+     */
+    private static final class Request {
+
+        final long number;
+
+        final String line;
+
+        Request(long number, String line) {
+            this.number = number;
+            this.line = line;
+        }
+    }
+
     /**
      * Recursive function to find a solution for a given cube. Only searches to
-     * the bound set in the cube object.
+     * the bound set in the cube object. The cube is twisted in place and
+     * untwisted again after each child, so no new cube objects are needed.
+     * When this function returns the cube is back in its original state.
+     * Move sequences which cannot be part of a shortest solution, or which
+     * only reorder commuting twists, are skipped, see MovePruning. Cubes which
+     * need more twists than the bound allows according to the heuristic are
+     * not searched any further (IDA*). If a perimeter table is used, the
+     * last twists are not searched but looked up in this table. Cubes found
+     * in the transposition table (if used) are not searched again. All cubes
+     * at which the search stops are added to the frontier (if used). When
+     * only the first solution is needed, the most promising twists are tried
+     * first, and the search stops as soon as any solution is found. Solutions
+     * are written to the solution writer (if used).
      *
      * @param cube
      *            cube to solve
-     * @param cache
-     *            cache of cubes used for new cube objects
+     * @param pruning
+     *            pruning state of the moves done so far
+     * @param heuristic
+     *            lower bound on the twists still needed
+     * @param frontier
+     *            frontier of the next bound, or null
      * @return the number of solutions found
      */
-    private static int solutions(Cube cube, CubeCache cache) {
+    private static int solutions(Cube cube, MovePruning pruning,
+            Heuristic heuristic, Frontier frontier) {
         if (cube.isSolved()) {
-            return 1;
+            if (solutionWriter != null) {
+                solutionWriter.write(cube, pruning.weight());
+            }
+            // also counts all reorderings of this solution
+            return (int) pruning.weight();
         }
 
         if (cube.getTwists() >= cube.getBound()) {
-            return 0;
+            return stop(cube, frontier, 0);
         }
 
-        // generate all possible cubes from this one by twisting it in
-        // every possible way. Gets new objects from the cache
-        Cube[] children = cube.generateChildren(cache);
+        if (cube.getTwists() + heuristic.estimate() > cube.getBound()) {
+            return stop(cube, frontier, 0);
+        }
+
+        int left = cube.getBound() - cube.getTwists();
+        if (perimeter != null && left <= perimeter.getDepth()) {
+            return stop(cube, frontier, (int) (pruning.weight() * perimeter
+                    .solutions(cube, left)));
+        }
+
+        // cubes with a single twist left are cheaper to search than to look up
+        boolean transposition = transpositions != null && left > 1;
+        long key = 0;
+        if (transposition) {
+            key = TranspositionTable.key(cube, pruning);
+            long known = transpositions.get(key, left, cube.getBound(),
+                    pruning.weight());
+            if (known >= 0) {
+                return stop(cube, frontier, (int) known);
+            }
+        }
 
         int result = 0;
+        int moves = cube.getMoves();
+        int[] order = first ? order(cube, heuristic) : null;
 
+        // try all possible twists of this cube
+        for (int i = 0; i < moves; i++) {
+            int move = (order == null) ? i : order[i];
+            if (!pruning.allows(move)) {
+                continue;
+            }
+
+            cube.twist(move);
+            pruning.push(move);
+            heuristic.push(move);
 
-        for (Cube child : children) {
             // recursion step
-            int childSolutions = solutions(child, cache);
-            if (childSolutions > 0) {
-                result += childSolutions;
-                if (PRINT_SOLUTION) {
-                    child.print(System.err);
+            result += solutions(cube, pruning, heuristic, frontier);
+
+            // undo twist before trying the next one
+            heuristic.pop();
+            pruning.pop();
+            cube.untwist(move);
+
+            if (first && (result > 0 || cancelled)) {
+                break;
+            }
+        }
+
+        // an unfinished search is not remembered
+        if (transposition && !(first && (result > 0 || cancelled))) {
+            transpositions.put(key, left, cube.getBound(), pruning.weight(),
+                    result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds a cube at which the search stops to the frontier, if any.
+     *
+     * @param cube
+     *            cube at which the search stops
+     * @param frontier
+     *            frontier of the next bound, or null
+     * @param result
+     *            solutions found from this cube
+     * @return the solutions found from this cube
+     */
+    private static int stop(Cube cube, Frontier frontier, int result) {
+        if (frontier != null) {
+            frontier.add(cube);
+        }
+        return result;
+    }
+
+    /**
+     * Searches the bound set in the cube object like solutions(), on all
+     * threads of the pool. The search is split into subtrees (see Subtree),
+     * and the solutions of all subtrees are summed.
+     *
+     * @param cube
+     *            cube to solve, with no moves done by the search yet
+     * @return the number of solutions found
+     */
+    private static int parallelSolutions(final Cube cube) {
+        ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+            protected Worker initialValue() {
+                return new Worker(cube);
+            }
+        };
+        cancelled = false;
+        return pool.invoke(new Subtree(workers, cube.getBound(), new int[0]));
+    }
+
+    /**
+     * Cube and search state of a single thread of the pool, see Subtree.
+     */
+    private static final class Worker {
+
+        final Cube cube;
+
+        final MovePruning pruning;
+
+        final Heuristic heuristic;
+
+        Worker(Cube root) {
+            cube = new Cube(root);
+            pruning = new MovePruning(cube);
+            heuristic = new Heuristic(cube);
+        }
+    }
+
+    /**
+     * Subtree of the search of a bound, given by the moves leading to it from
+     * the cube the search started with. A thread running the task does these
+     * moves on its own copy of that cube (see Worker), so no cube is copied
+     * or shared per task, and the pruning state and heuristic are exactly
+     * those of solutions() at the same cube.
+     *
+     * A subtree is split into a task for each move allowed, as long as it
+     * has enough twists left and the thread has few tasks waiting to be
+     * stolen by idle threads. Otherwise it is searched by solutions() right
+     * away. Before the child tasks run, the moves are undone again, so a
+     * thread can run other tasks while waiting for them.
+     */
+    private static final class Subtree extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ThreadLocal<Worker> workers;
+
+        private final int bound;
+
+        private final int[] moves;
+
+        Subtree(ThreadLocal<Worker> workers, int bound, int[] moves) {
+            this.workers = workers;
+            this.bound = bound;
+            this.moves = moves;
+        }
+
+        protected Integer compute() {
+            if (first && cancelled) {
+                return 0;
+            }
+
+            Worker worker = workers.get();
+            Cube cube = worker.cube;
+            MovePruning pruning = worker.pruning;
+            Heuristic heuristic = worker.heuristic;
+
+            cube.setBound(bound);
+            for (int move : moves) {
+                cube.twist(move);
+                pruning.push(move);
+                heuristic.push(move);
+            }
+
+            int result = 0;
+            List<Subtree> children = null;
+            int left = bound - cube.getTwists();
+
+            if (!cube.isSolved() && left > MIN_SPLIT_LEFT
+                    && (perimeter == null || left > perimeter.getDepth())
+                    && cube.getTwists() + heuristic.estimate() <= bound
+                    && getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS) {
+                children = new ArrayList<Subtree>();
+                int[] order = first ? order(cube, heuristic) : null;
+                for (int i = 0; i < cube.getMoves(); i++) {
+                    int move = (order == null) ? i : order[i];
+                    if (pruning.allows(move)) {
+                        int[] childMoves = new int[moves.length + 1];
+                        System.arraycopy(moves, 0, childMoves, 0,
+                                moves.length);
+                        childMoves[moves.length] = move;
+                        children.add(new Subtree(workers, bound, childMoves));
+                    }
                 }
+            } else {
+                result = solutions(cube, pruning, heuristic, null);
+            }
+
+            for (int i = moves.length - 1; i >= 0; i--) {
+                heuristic.pop();
+                pruning.pop();
+                cube.untwist(moves[i]);
+            }
+
+            if (children != null) {
+                for (Subtree child : invokeAll(children)) {
+                    result += child.join();
+                }
+            }
+
+            if (first && result > 0) {
+                cancelled = true;
             }
-            // put child object in cache
-            cache.put(child);
+            return result;
         }
+    }
 
+    /**
+     * Searches the bound set in the cube object, in the way selected on the
+     * command line.
+     *
+     * @param cube
+     *            cube to solve
+     * @param pruning
+     *            pruning state of the moves done so far
+     * @param heuristic
+     *            lower bound on the twists still needed
+     * @param frontier
+     *            frontier of the previous bound, or null
+     * @return the number of solutions found
+     */
+    private static int search(Cube cube, MovePruning pruning,
+            Heuristic heuristic, Frontier frontier) {
+        if (frontier != null) {
+            return frontierSolutions(cube, pruning, heuristic, frontier);
+        }
+        if (memo != null) {
+            return (int) (pruning.weight() * count(cube, heuristic, -1));
+        }
+        if (pool != null) {
+            return parallelSolutions(cube);
+        }
+        return solutions(cube, pruning, heuristic, null);
+    }
+
+    /**
+     * Searches the bound set in the cube object like solutions(), but only
+     * from the cubes in the frontier of the previous bound: every move
+     * sequence the search of this bound tries starts with exactly one of
+     * these. The cubes at which this search stops form the frontier of the
+     * next bound. Consecutive cubes of the frontier usually share most of
+     * their moves, so only the moves after the shared ones are undone and
+     * done again.
+     *
+     * @param cube
+     *            cube to solve
+     * @param pruning
+     *            pruning state of the moves done so far
+     * @param heuristic
+     *            lower bound on the twists still needed
+     * @param frontier
+     *            frontier of the previous bound
+     * @return the number of solutions found
+     */
+    private static int frontierSolutions(Cube cube, MovePruning pruning,
+            Heuristic heuristic, Frontier frontier) {
+        int result = 0;
+        int[] moves = new int[cube.getBound()];
+        int[] done = new int[cube.getBound()];
+        int depth = 0;
+        int length;
+
+        while ((length = frontier.next(moves)) >= 0) {
+            int shared = 0;
+            while (shared < depth && shared < length
+                    && done[shared] == moves[shared]) {
+                shared++;
+            }
+
+            while (depth > shared) {
+                depth--;
+                heuristic.pop();
+                pruning.pop();
+                cube.untwist(done[depth]);
+            }
+            while (depth < length) {
+                cube.twist(moves[depth]);
+                pruning.push(moves[depth]);
+                heuristic.push(moves[depth]);
+                done[depth] = moves[depth];
+                depth++;
+            }
+
+            result += solutions(cube, pruning, heuristic, frontier);
+        }
+
+        while (depth > 0) {
+            depth--;
+            heuristic.pop();
+            pruning.pop();
+            cube.untwist(done[depth]);
+        }
+
+        frontier.advance();
+        return result;
+    }
+
+    /**
+     * Counts the solutions of a cube within the bound set in the cube object,
+     * like solutions(), but searching every order of the twists instead of
+     * using MovePruning. The number of solutions then only depends on the cube
+     * and the number of twists left, so it is remembered for every cube
+     * searched (see --memo-mb), and cubes reached again by another order of
+     * the same twists are not searched again.
+     *
+     * Only the solutions of the first bound which has any are counted, so a
+     * cube with r twists left is never solved in fewer than r twists. Its
+     * solutions never start by undoing the previous twist, and the count is
+     * the same for every search which reaches it, whatever its bound.
+     *
+     * @param cube
+     *            cube to solve
+     * @param heuristic
+     *            lower bound on the twists still needed
+     * @param previous
+     *            last move done, or -1 if none
+     * @return the number of solutions found
+     */
+    private static long count(Cube cube, Heuristic heuristic, int previous) {
+        if (cube.isSolved()) {
+            if (solutionWriter != null) {
+                solutionWriter.write(cube, 1);
+            }
+            return 1;
+        }
+
+        int left = cube.getBound() - cube.getTwists();
+        if (left <= 0 || heuristic.estimate() > left) {
+            return 0;
+        }
+
+        if (perimeter != null && left <= perimeter.getDepth()) {
+            return perimeter.solutions(cube, left);
+        }
+
+        long key = TranspositionTable.key(cube);
+        long known = memo.get(key, left, 0, 1);
+        if (known >= 0) {
+            return known;
+        }
+
+        long result = 0;
+        int moves = cube.getMoves();
+        int[] order = first ? order(cube, heuristic) : null;
+
+        for (int i = 0; i < moves; i++) {
+            int move = (order == null) ? i : order[i];
+            if (previous >= 0 && move == TwistTable.inverseMove(previous)) {
+                continue;
+            }
+
+            cube.twist(move);
+            heuristic.push(move);
+
+            result += count(cube, heuristic, move);
+
+            heuristic.pop();
+            cube.untwist(move);
+
+            if (first && result > 0) {
+                break;
+            }
+        }
+
+        if (!(first && result > 0)) {
+            memo.put(key, left, 0, 1, result);
+        }
+        return result;
+    }
+
+    /**
+     * Orders the moves of a cube so that the moves to the cubes which are
+     * closest to solved according to the heuristic come first. Moves with
+     * the same estimate keep their order.
+     *
+     * @param cube
+     *            cube to twist
+     * @param heuristic
+     *            lower bound on the twists still needed
+     * @return all moves, most promising first
+     */
+    private static int[] order(Cube cube, Heuristic heuristic) {
+        int moves = cube.getMoves();
+        int[] result = new int[moves];
+        int[] estimates = new int[moves];
+
+        for (int move = 0; move < moves; move++) {
+            heuristic.push(move);
+            int estimate = heuristic.estimate();
+            heuristic.pop();
+
+            // insertion sort, there are only a few moves
+            int i = move;
+            while (i > 0 && estimates[i - 1] > estimate) {
+                result[i] = result[i - 1];
+                estimates[i] = estimates[i - 1];
+                i--;
+            }
+            result[i] = move;
+            estimates[i] = estimate;
+        }
         return result;
     }
 
@@ -61,25 +547,377 @@ public class Rubiks {
      *            the cube to solve
      */
     private static void solve(Cube cube) {
-        // cache used for cube objects. Doing new Cube() for every move
-        // overloads the garbage collector
-        CubeCache cache = new CubeCache(cube.getSize());
+        System.out.print("Bound now:");
+
+        int result = deepen(cube, true);
+
+        System.out.println();
+        if (first) {
+            System.out.println("Solving cube possible in " + cube.getBound()
+                    + " steps");
+        } else {
+            System.out.println("Solving cube possible in " + result
+                    + " ways of " + cube.getBound() + " steps");
+        }
+    }
+
+    /**
+     * Searches a cube with increasing bounds, until the first bound with
+     * solutions. Only uses state of its own and read only or thread safe
+     * tables, so several cubes can be solved at the same time.
+     *
+     * @param cube
+     *            the cube to solve. Its bound is left at the number of steps
+     *            of the solutions found
+     * @param verbose
+     *            print each bound (and its estimate, see --estimate)
+     * @return the number of solutions found
+     * @throws Error
+     *             if the cube is not solved within the maximum bound (see
+     *             --max-bound)
+     */
+    private static int deepen(Cube cube, boolean verbose) {
         int bound = 0;
         int result = 0;
-
-        System.out.print("Bound now:");
+        MovePruning pruning = new MovePruning(cube);
+        Heuristic heuristic = new Heuristic(cube);
+        Frontier frontier = null;
+        if (frontierMegabytes > 0) {
+            frontier = new Frontier(cube, frontierMegabytes);
+        }
 
         while (result == 0) {
+            if (maxBound > 0 && bound >= maxBound) {
+                if (frontier != null) {
+                    frontier.close();
+                }
+                throw new Error("no solution within " + maxBound + " steps");
+            }
+
             bound++;
             cube.setBound(bound);
 
-            System.out.print(" " + bound);
-            result = solutions(cube, cache);
+            long boundStart = System.currentTimeMillis();
+            if (verbose) {
+                System.out.print(" " + bound);
+                if (estimate != null) {
+                    System.err.println(estimate.predict(bound));
+                }
+            }
+
+            result = search(cube, pruning, heuristic, frontier);
+
+            if (verbose && estimate != null) {
+                estimate.searched(bound, System.currentTimeMillis()
+                        - boundStart);
+            }
         }
 
-        System.out.println();
-        System.out.println("Solving cube possible in " + result + " ways of "
-                + bound + " steps");
+        if (frontier != null) {
+            frontier.close();
+        }
+
+        return result;
+    }
+
+    /**
+     * Solves all cubes listed in a file, several at the same time on a fixed
+     * number of threads, sharing the tables. Prints a line for each cube,
+     * in the order of the file, with the solutions found and the time it
+     * took.
+     *
+     * Each line of the file describes a cube, see readCube(). Empty lines and
+     * lines starting with # are skipped.
+     *
+     * @param fileName
+     *            name of the file listing the cubes
+     * @param size
+     *            size of all cubes
+     * @param threads
+     *            number of cubes solved at the same time
+     * @throws Exception
+     *             if the file cannot be read
+     */
+    private static void solveBatch(String fileName, final int size,
+            int threads) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (final String line : lines) {
+            results.add(pool.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return solveLine(line, size);
+                }
+            }));
+        }
+
+        for (int i = 0; i < lines.size(); i++) {
+            String result;
+            try {
+                result = results.get(i).get();
+            } catch (ExecutionException e) {
+                result = "error: " + e.getCause();
+            }
+            System.out.println(lines.get(i) + ": " + result);
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Solves cubes read from standard input, one per line (see readCube()),
+     * on a fixed number of threads sharing the tables, until the input ends.
+     * Writes a JSON object to standard output for each cube as soon as it is
+     * solved, so not in the order of the input:
+     *
+     * {"request":1,"input":"3 11 0","steps":11,"solutions":6,"milliseconds":42}
+     *
+     * The request is the number of the line in the input, counting from 1. A
+     * cube which cannot be read gives an "error" instead of a result, and
+     * the service continues with the next line. Empty lines and lines
+     * starting with # are skipped.
+     *
+     * The lines read wait for a thread in a queue of a fixed size. Once it is
+     * full, reading stops until a thread takes the next cube, so the memory
+     * used does not depend on the length of the input.
+     *
+     * @param size
+     *            size of cubes given as twists and seed only
+     * @param threads
+     *            number of cubes solved at the same time
+     * @throws Exception
+     *             if standard input cannot be read
+     */
+    private static void serve(final int size, int threads) throws Exception {
+        final BlockingQueue<Request> queue = new ArrayBlockingQueue<Request>(
+                QUEUE_PER_THREAD * threads);
+
+        Thread[] solvers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            solvers[i] = new Thread() {
+                public void run() {
+                    try {
+                        Request request;
+                        while ((request = queue.take()).line != null) {
+                            String result = serveLine(request, size);
+                            synchronized (System.out) {
+                                System.out.println(result);
+                                System.out.flush();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        // stop solving
+                    }
+                }
+            };
+            solvers[i].start();
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                System.in));
+        long number = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.length() > 0 && !line.startsWith("#")) {
+                queue.put(new Request(number, line));
+            }
+        }
+
+        // a request without a line stops a thread
+        for (int i = 0; i < threads; i++) {
+            queue.put(new Request(number, null));
+        }
+        for (int i = 0; i < threads; i++) {
+            solvers[i].join();
+        }
+    }
+
+    /**
+     * Solves a single cube of the service, see serve().
+     *
+     * @param request
+     *            line of the input describing the cube, and its number
+     * @param size
+     *            size of cubes given as twists and seed only
+     * @return the result of the cube as a JSON object
+     */
+    private static String serveLine(Request request, int size) {
+        String result = "{\"request\":" + request.number + ",\"input\":"
+                + quote(request.line);
+        try {
+            Cube cube = readCube(request.line, size, false);
+            if (perimeter != null && cube.getSize() != perimeter.getSize()) {
+                return result + ",\"error\":"
+                        + quote("cube of size " + cube.getSize()
+                                + ", expected " + perimeter.getSize()) + "}";
+            }
+
+            long start = System.currentTimeMillis();
+            int solutions = deepen(cube, false);
+            long time = System.currentTimeMillis() - start;
+
+            result += ",\"steps\":" + cube.getBound();
+            if (!first) {
+                result += ",\"solutions\":" + solutions;
+            }
+            return result + ",\"milliseconds\":" + time + "}";
+        } catch (Throwable e) {
+            // a bad request must not stop the service. Only the messages of
+            // the solver itself are passed on, others could show anything
+            String message = e.getMessage();
+            if (!(e instanceof Error || e.getClass() == Exception.class)
+                    || message == null) {
+                message = "cannot solve cube (" + e.getClass().getSimpleName()
+                        + ")";
+            }
+            return result + ",\"error\":" + quote(message) + "}";
+        }
+    }
+
+    /**
+     * Writes a string as a JSON string.
+     *
+     * @param string
+     *            the string
+     * @return the string in quotes, with special characters escaped
+     */
+    private static String quote(String string) {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /**
+     * Reads a cube from a line of a batch file or of the service. A line is
+     * either the number of twists and the seed of a random cube of the given
+     * size, the size, twists and seed of a random cube, the colors of all
+     * elements of a cube (see Cube.parse()), or the name of a file with a
+     * cube (see --file). The service does not read files: anyone sending it
+     * cubes could read any file of the machine otherwise. It also limits the
+     * size and twists of its cubes (SERVE_MAX_SIZE and SERVE_MAX_TWISTS).
+     *
+     * @param line
+     *            line describing the cube
+     * @param size
+     *            size of cubes given as twists and seed only
+     * @param trusted
+     *            if the line comes from the operator (--batch), so it may be
+     *            the name of a file, and cubes are not limited
+     * @return the cube
+     * @throws Exception
+     *             if the cube cannot be read
+     */
+    private static Cube readCube(String line, int size, boolean trusted)
+            throws Exception {
+        int maxSize = trusted ? Integer.MAX_VALUE : SERVE_MAX_SIZE;
+        int maxTwists = trusted ? Integer.MAX_VALUE : SERVE_MAX_TWISTS;
+
+        String[] words = line.split("\\s+");
+        if (words.length == 2 && words[0].matches("\\d+")
+                && words[1].matches("-?\\d+")) {
+            // the size is set by the operator (--size)
+            return new Cube(size, number(words[0], "twists", 0, maxTwists),
+                    number(words[1], "seed", Integer.MIN_VALUE,
+                            Integer.MAX_VALUE));
+        }
+        if (words.length == 3 && words[0].matches("\\d+")
+                && words[1].matches("\\d+") && words[2].matches("-?\\d+")) {
+            return new Cube(number(words[0], "size", 2, maxSize), number(
+                    words[1], "twists", 0, maxTwists), number(words[2],
+                    "seed", Integer.MIN_VALUE, Integer.MAX_VALUE));
+        }
+        if (words.length == 1 && line.matches("[WBOGRY]+")) {
+            if (line.length() > Cube.SIDES * (long) maxSize * maxSize) {
+                throw new Exception("size must be at most " + maxSize);
+            }
+            return Cube.parse(line);
+        }
+        if (!trusted) {
+            throw new Exception("expected TWISTS SEED, SIZE TWISTS SEED or "
+                    + "the colors of all elements");
+        }
+        return new Cube(line);
+    }
+
+    /**
+     * Reads a number of a line describing a cube, see readCube().
+     *
+     * @param word
+     *            the number, as decimal digits with an optional minus sign
+     * @param name
+     *            what the number is, for the error message
+     * @param min
+     *            smallest number allowed
+     * @param max
+     *            largest number allowed
+     * @return the number
+     * @throws Exception
+     *             if the number is out of range
+     */
+    private static int number(String word, String name, int min, int max)
+            throws Exception {
+        // longer numbers are out of range of any int
+        long value = (word.length() > 12) ? Long.MAX_VALUE : Long
+                .parseLong(word);
+        if (value < min) {
+            throw new Exception(name + " must be at least " + min);
+        }
+        if (value > max) {
+            throw new Exception(name + " must be at most " + max);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Solves a single cube of a batch, see solveBatch().
+     *
+     * @param line
+     *            line of the batch file describing the cube
+     * @param size
+     *            size of all cubes
+     * @return the result of the cube
+     * @throws Exception
+     *             if the cube cannot be loaded
+     */
+    private static String solveLine(String line, int size) throws Exception {
+        Cube cube = readCube(line, size, true);
+        if (perimeter != null && cube.getSize() != perimeter.getSize()) {
+            return "error: cube of size " + cube.getSize() + ", expected "
+                    + perimeter.getSize();
+        }
+
+        long start = System.currentTimeMillis();
+        int result = deepen(cube, false);
+        long time = System.currentTimeMillis() - start;
+
+        if (first) {
+            return cube.getBound() + " steps, " + time + " milliseconds";
+        }
+        return result + " ways of " + cube.getBound() + " steps, " + time
+                + " milliseconds";
     }
 
     public static void printUsage() {
@@ -99,13 +937,60 @@ public class Rubiks {
         System.out
                 .println("--seed SEED\t\tSeed of random generator (default: 0");
         System.out
-                .println("--threads THREADS\t\tNumber of threads to use (default: 1, other values not supported by sequential version)");
+                .println("--threads THREADS\t\tNumber of threads to use (default: 1, used by sequential version to solve cubes of --batch or --serve at the same time, or else to split the search of a single cube, not with --frontier-mb or --memo-mb)");
         System.out.println("");
         System.out
                 .println("--file FILE_NAME\t\tLoad cube from given file instead of generating it");
+        System.out
+                .println("--perimeter DEPTH\t\tLook up the last DEPTH twists in a table instead of searching them (default: 0, off)");
+        System.out
+                .println("--tt-mb MEGABYTES\t\tMemory used to remember searched cubes (default: 0, off)");
+        System.out
+                .println("--memo-mb MEGABYTES\t\tCount solutions in every order of the twists, remembering the counts in this much memory (default: 0, off)");
+        System.out
+                .println("--frontier-mb MEGABYTES\t\tContinue each bound from where the previous one stopped, keeping this much of it in memory (default: 0, off)");
+        System.out
+                .println("--first\t\tStop at the first optimal solution instead of counting all of them");
+        System.out
+                .println("--solutions FILE_NAME\t\tWrite each solution found to this file, as a line with its weight (the number of orderings of commuting twists it stands for) and its moves (not with --perimeter, --tt-mb or --memo-mb)");
+        System.out
+                .println("--estimate PROBES\t\tEstimate the size and time of each bound on standard error, with this many random probes (default: 0, off)");
+        System.out
+                .println("--batch FILE_NAME\t\tSolve all cubes in this file, one per line as TWISTS SEED, SIZE TWISTS SEED, the colors of all elements or a cube file name (not with --solutions or --estimate)");
+        System.out
+                .println("--serve\t\tSolve cubes read from standard input like --batch (but not from cube files, and up to size " + SERVE_MAX_SIZE + " and " + SERVE_MAX_TWISTS + " twists), writing a JSON line for each cube solved to standard output");
+        System.out
+                .println("--max-bound STEPS\t\tGive up on cubes not solved within this many steps (default: 0, no limit, or " + SERVE_MAX_BOUND + " with --serve)");
         System.out.println("");
     }
 
+    /**
+     * Builds or loads the tables used by the search, before it is timed.
+     * Searches of different cubes (of the same size) share these tables.
+     *
+     * @param size
+     *            size of the cubes to solve
+     * @param perimeterDepth
+     *            depth of the perimeter table, 0 if not used
+     * @param transpositionMegabytes
+     *            memory of the transposition table, 0 if not used
+     * @param memoMegabytes
+     *            memory of the memo, 0 if not used
+     */
+    private static void loadTables(int size, int perimeterDepth,
+            int transpositionMegabytes, int memoMegabytes) {
+        Heuristic.load(size);
+        if (perimeterDepth > 0) {
+            perimeter = PerimeterTable.get(size, perimeterDepth);
+        }
+        if (transpositionMegabytes > 0) {
+            transpositions = new TranspositionTable(transpositionMegabytes);
+        }
+        if (memoMegabytes > 0) {
+            memo = new TranspositionTable(memoMegabytes);
+        }
+    }
+
     /**
      * Main function.
      *
@@ -120,9 +1005,18 @@ public class Rubiks {
         int twists = 11;
         int seed = 0;
         String fileName = null;
+        int perimeterDepth = 0;
+        int transpositionMegabytes = 0;
+        int memoMegabytes = 0;
+        String solutionsFileName = null;
+        int estimateProbes = 0;
+        String batchFileName = null;
+        boolean serve = false;
 
         // number of threads used to solve puzzle
-        // (not used in sequential version)
+        // (one cube per thread for a batch or the service in sequential
+        // version)
+        int threads = 1;
 
         for (int i = 0; i < arguments.length; i++) {
             if (arguments[i].equalsIgnoreCase("--size")) {
@@ -137,6 +1031,43 @@ public class Rubiks {
             } else if (arguments[i].equalsIgnoreCase("--file")) {
                 i++;
                 fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--perimeter")) {
+                i++;
+                perimeterDepth = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--tt-mb")) {
+                i++;
+                transpositionMegabytes = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--memo-mb")) {
+                i++;
+                memoMegabytes = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--frontier-mb")) {
+                i++;
+                frontierMegabytes = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--first")) {
+                first = true;
+            } else if (arguments[i].equalsIgnoreCase("--solutions")) {
+                i++;
+                solutionsFileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--estimate")) {
+                i++;
+                estimateProbes = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--batch")) {
+                i++;
+                batchFileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--max-bound")) {
+                i++;
+                maxBound = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--serve")) {
+                serve = true;
+            } else if (arguments[i].equalsIgnoreCase("--threads")) {
+                i++;
+                threads = Integer.parseInt(arguments[i]);
+                if (threads < 1) {
+                    System.err.println("number of threads must be at least 1: "
+                            + arguments[i]);
+                    printUsage();
+                    System.exit(1);
+                }
             } else if (arguments[i].equalsIgnoreCase("--help") || arguments[i].equalsIgnoreCase("-h")) {
                 printUsage();
                 System.exit(0);
@@ -147,6 +1078,67 @@ public class Rubiks {
             }
         }
 
+        // solutions found through a table are only counted, never seen
+        if ((solutionsFileName != null || PRINT_SOLUTION)
+                && (perimeterDepth > 0 || transpositionMegabytes > 0 || memoMegabytes > 0)) {
+            System.err
+                    .println("cannot write solutions with --perimeter, --tt-mb or --memo-mb");
+            printUsage();
+            System.exit(1);
+        }
+
+        // frontiers are not shared, and memo counts are only searched by a
+        // single thread
+        if (threads > 1 && batchFileName == null && !serve
+                && (frontierMegabytes > 0 || memoMegabytes > 0)) {
+            System.err
+                    .println("cannot split the search with --frontier-mb or --memo-mb");
+            printUsage();
+            System.exit(1);
+        }
+
+        if ((batchFileName != null || serve)
+                && (solutionsFileName != null || PRINT_SOLUTION || estimateProbes > 0)) {
+            System.err
+                    .println("cannot write solutions or estimates with --batch or --serve");
+            printUsage();
+            System.exit(1);
+        }
+
+        if (serve) {
+            if (maxBound == 0) {
+                maxBound = SERVE_MAX_BOUND;
+            }
+            loadTables(size, perimeterDepth, transpositionMegabytes,
+                    memoMegabytes);
+
+            try {
+                serve(size, threads);
+            } catch (Exception e) {
+                System.err.println("Cannot serve: " + e);
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (batchFileName != null) {
+            loadTables(size, perimeterDepth, transpositionMegabytes,
+                    memoMegabytes);
+
+            long start = System.currentTimeMillis();
+            try {
+                solveBatch(batchFileName, size, threads);
+            } catch (Exception e) {
+                System.err.println("Cannot solve batch: " + e);
+                System.exit(1);
+            }
+            long end = System.currentTimeMillis();
+
+            System.err.println("Solving batch took " + (end - start)
+                    + " milliseconds");
+            return;
+        }
+
         // create cube
         if (fileName == null) {
             cube = new Cube(size, twists, seed);
@@ -166,11 +1158,44 @@ public class Rubiks {
         System.out.flush();
 
 
+        // build or load the pattern databases before timing the search
+        loadTables(cube.getSize(), perimeterDepth, transpositionMegabytes,
+                memoMegabytes);
+        if (solutionsFileName != null) {
+            try {
+                solutionWriter = new SolutionWriter(solutionsFileName);
+            } catch (IOException e) {
+                System.err.println("Cannot write solutions to file: " + e);
+                System.exit(1);
+            }
+        } else if (PRINT_SOLUTION) {
+            solutionWriter = new SolutionWriter(System.err);
+        }
+        if (estimateProbes > 0) {
+            estimate = new TreeEstimate(cube, estimateProbes);
+            int lowerBound = new Heuristic(cube).estimate();
+            for (int bound = lowerBound; bound < lowerBound + PREDICTED_BOUNDS; bound++) {
+                System.err.println(estimate.predict(bound));
+            }
+        }
+
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+        }
+
         // solve
         long start = System.currentTimeMillis();
         solve(cube);
         long end = System.currentTimeMillis();
 
+        if (pool != null) {
+            pool.shutdown();
+        }
+
+        if (solutionWriter != null) {
+            solutionWriter.close();
+        }
+
         // NOTE: this is printed to standard error! The rest of the output is
         // constant for each set of parameters. Printing this to standard error
         // makes the output of standard out comparable with "diff"
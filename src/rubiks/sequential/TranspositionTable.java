@@ -0,0 +1,173 @@
+package rubiks.sequential;
+
+/**
+ * Fixed size table of search results, so a cube reached by several move
+ * sequences is only searched once for the same number of twists left.
+ *
+ * The number of solutions found from a cube depends on the cube, the number
+ * of twists left, and the state of the current run of twists (see
+ * MovePruning.context()), and is proportional to the weight of the moves done
+ * so far. An entry therefore stores the solutions found together with the
+ * weight at that time, and a later search from the same cube and run state
+ * scales the solutions to its own weight.
+ *
+ * Cubes are identified by their 64 bit hash (see Cube.getHash()), combined
+ * with the run state. Each entry is two longs: the key xor-ed with the data,
+ * and the data itself. A reader only accepts an entry if both match, so
+ * threads can share the table without locks: an entry half written by
+ * another thread is simply not found.
+ *
+ * A search which counts every order of the twists (see Rubiks.count()) does
+ * not depend on the moves done so far, so it uses the cube alone as key, and
+ * a weight of 1.
+ *
+ * When two cubes map to the same entry, the result of another bound (age) is
+ * replaced first, and otherwise the result with the most twists left is kept.
+ */
+final class TranspositionTable {
+
+    // bits used in the data of an entry
+    private static final int LEFT_BITS = 6;
+
+    private static final int AGE_BITS = 8;
+
+    private static final int WEIGHT_BITS = 18;
+
+    private static final int SOLUTION_BITS = 32;
+
+    // key and data of each entry, see class comment
+    private final long[] entries;
+
+    private final int mask;
+
+    /**
+     * Creates a table using (at most) the given amount of memory.
+     *
+     * @param megabytes
+     *            memory used by the table
+     */
+    TranspositionTable(int megabytes) {
+        long bytes = (long) megabytes << 20;
+
+        // two longs per entry, and a power of two number of entries
+        int count = 1;
+        while ((long) count * 2 * 16 <= bytes && count < (1 << 29)) {
+            count *= 2;
+        }
+        entries = new long[count * 2];
+        mask = count - 1;
+    }
+
+    /**
+     * Key of a cube in a search.
+     *
+     * @param cube
+     *            cube reached by the search
+     * @param pruning
+     *            pruning state of the moves done so far
+     * @return the key of this cube and run state
+     */
+    static long key(Cube cube, MovePruning pruning) {
+        return mix(cube.getHash() ^ pruning.context());
+    }
+
+    /**
+     * Key of a cube alone, for results which do not depend on the moves done
+     * so far.
+     *
+     * @param cube
+     *            cube reached by the search
+     * @return the key of this cube
+     */
+    static long key(Cube cube) {
+        return mix(cube.getHash());
+    }
+
+    /**
+     * Looks up the solutions found earlier.
+     *
+     * @param key
+     *            key of the cube, see key()
+     * @param left
+     *            number of twists left
+     * @param age
+     *            current bound
+     * @param weight
+     *            weight of the moves done so far
+     * @return the number of solutions, or -1 if not known
+     */
+    long get(long key, int left, int age, long weight) {
+        int index = ((int) key & mask) * 2;
+        long data = entries[index + 1];
+
+        if (data == 0 || (entries[index] ^ data) != key
+                || left(data) != left
+                || age(data) != (age & ((1 << AGE_BITS) - 1))) {
+            return -1;
+        }
+
+        // the solutions are proportional to the weight, so this division is
+        // exact
+        return (solutions(data) * weight) / weight(data);
+    }
+
+    /**
+     * Stores the solutions found.
+     *
+     * @param key
+     *            key of the cube, see key()
+     * @param left
+     *            number of twists left
+     * @param age
+     *            current bound
+     * @param weight
+     *            weight of the moves done so far
+     * @param solutions
+     *            number of solutions found
+     */
+    void put(long key, int left, int age, long weight, long solutions) {
+        if (left >= (1 << LEFT_BITS) || weight >= (1 << WEIGHT_BITS)
+                || solutions >= (1L << SOLUTION_BITS)) {
+            // does not fit, simply not stored
+            return;
+        }
+
+        int index = ((int) key & mask) * 2;
+        long old = entries[index + 1];
+        age &= (1 << AGE_BITS) - 1;
+
+        if (old != 0 && age(old) == age && left(old) > left) {
+            // keep the larger search
+            return;
+        }
+
+        long data = (solutions << WEIGHT_BITS) | weight;
+        data = (((data << AGE_BITS) | age) << LEFT_BITS) | left;
+        entries[index] = key ^ data;
+        entries[index + 1] = data;
+    }
+
+    // *** Only private functions ahead ***\\
+
+    private static long mix(long hash) {
+        long result = hash * 0x9E3779B97F4A7C15L;
+        return result ^ (result >>> 29);
+    }
+
+    private static int left(long data) {
+        return (int) (data & ((1 << LEFT_BITS) - 1));
+    }
+
+    private static int age(long data) {
+        return (int) ((data >>> LEFT_BITS) & ((1 << AGE_BITS) - 1));
+    }
+
+    private static long weight(long data) {
+        return (data >>> (LEFT_BITS + AGE_BITS)) & ((1 << WEIGHT_BITS) - 1);
+    }
+
+    private static long solutions(long data) {
+        return data >>> (LEFT_BITS + AGE_BITS + WEIGHT_BITS);
+    }
+
+}
@@ -0,0 +1,745 @@
+package rubiks.sequential;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Precomputed permutation tables for all twists of a cube of a given size.
+ * Tables are built once per cube size by tracing the position of every element
+ * through the twist routines, after which a twist is a single gather:
+ *
+ * <pre>
+ * after[i] = before[permutation[move][i]]
+ * </pre>
+ *
+ * For twisting a cube in place the same permutation is also stored as a list
+ * of cycles. Every twist is a quarter turn, so each element that moves is part
+ * of a cycle of exactly four elements. Elements that do not move are not in
+ * this list at all.
+ *
+ * Many elements move together with their neighbours: the rows moved by an X
+ * twist are consecutive in memory on all four sides, as are the elements left
+ * in place. Long runs of such elements, in both the gather and the cycles, are
+ * therefore stored separately and moved with System.arraycopy, which the JVM
+ * implements with wide (SIMD) loads and stores. All other elements are still
+ * moved one by one.
+ *
+ * For hashing, every combination of element and color has a random 64 bit
+ * key. The hash of a cube is the xor of the keys of all its elements
+ * (Zobrist hashing), so a twist changes the hash by the keys of the elements
+ * it moves only.
+ *
+ * Finally, the corner elements are grouped into corner cubies. The corner
+ * between the TOP, LEFT and FRONT sides is never moved by any twist, which
+ * determines the color of every side in the solved state.
+ *
+ * Moves are numbered in the order generateChildren produces them: for each
+ * axis, for each row (1 .. size - 1), first the positive, then the negative
+ * direction. The inverse of a move is always move ^ 1.
+ */
+final class TwistTable {
+
+    private static final Map<Integer, TwistTable> tables = new HashMap<Integer, TwistTable>();
+
+    private final int size;
+
+    // number of elements on a single side
+    private final int sideSize;
+
+    // permutation of all elements for each move
+    private final int[][] permutation;
+
+    // shortest run moved with System.arraycopy. Calls have a fixed cost, so
+    // shorter runs are faster element by element. This leaves cubes up to
+    // 4x4x4 completely element by element
+    private static final int MIN_COPY = 16;
+
+    // long runs of the permutation for each move: (target, source, length)
+    private final int[][] copies;
+
+    // all other elements for each move: (target, source)
+    private final int[][] gathers;
+
+    // long runs of cycles of four elements for each move: (a, b, c, d,
+    // length), cycle i of the run being (a + i, b + i, c + i, d + i)
+    private final int[][] blocks;
+
+    // all other cycles of four elements moved by each move
+    private final int[][] cycles;
+
+    // elements of each corner cubie. The corner which never moves is last
+    private final int[][] corners;
+
+    // random key for each element and color (element * SIDES + color)
+    private final long[] keys;
+
+    /**
+     * Returns the (shared) table for cubes of the given size, building it on
+     * first use.
+     *
+     * @param size
+     *            size of the cube
+     * @return the twist table for the given size
+     */
+    static TwistTable forSize(int size) {
+        synchronized (tables) {
+            TwistTable result = tables.get(size);
+            if (result == null) {
+                result = new TwistTable(size);
+                tables.put(size, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Number of possible moves for a cube of the given size
+     *
+     * @param size
+     *            size of the cube
+     * @return the number of moves
+     */
+    static int moves(int size) {
+        return 6 * (size - 1);
+    }
+
+    /**
+     * Returns the move that undoes the given move.
+     *
+     * @param move
+     *            number of the move
+     * @return number of the inverse move
+     */
+    static int inverseMove(int move) {
+        return move ^ 1;
+    }
+
+    /**
+     * Computes the number of a move.
+     *
+     * @param size
+     *            size of the cube
+     * @param axis
+     *            axis to turn cube on
+     * @param row
+     *            first row which to turn ( 0 < row < size )
+     * @param direction
+     *            direction to turn, either positive or negative
+     * @return the number of the move
+     */
+    static int move(int size, Cube.Axis axis, int row, boolean direction) {
+        return (((axis.ordinal() * (size - 1)) + (row - 1)) * 2)
+                + (direction ? 0 : 1);
+    }
+
+    /**
+     * Writes a move in a compact notation: the axis, the first row turned and
+     * the direction, for instance "X1+" or "Z2-".
+     *
+     * @param size
+     *            size of the cube
+     * @param move
+     *            number of the move
+     * @param out
+     *            buffer to write to
+     * @param offset
+     *            position in the buffer
+     * @return the position after the move
+     */
+    static int name(int size, int move, byte[] out, int offset) {
+        int axisRow = move / 2;
+        int row = (axisRow % (size - 1)) + 1;
+
+        out[offset++] = (byte) ('X' + (axisRow / (size - 1)));
+        if (row >= 10) {
+            out[offset++] = (byte) ('0' + (row / 10));
+        }
+        out[offset++] = (byte) ('0' + (row % 10));
+        out[offset++] = (byte) (((move & 1) == 0) ? '+' : '-');
+        return offset;
+    }
+
+    private TwistTable(int size) {
+        if (moves(size) > 256) {
+            // moves are stored in a single byte, see Cube
+            throw new Error("cubes larger than 43x43x43 are not supported");
+        }
+        this.size = size;
+        this.sideSize = size * size;
+
+        permutation = new int[moves(size)][];
+        copies = new int[moves(size)][];
+        gathers = new int[moves(size)][];
+        blocks = new int[moves(size)][];
+        cycles = new int[moves(size)][];
+
+        for (Cube.Axis axis : Cube.Axis.values()) {
+            for (int row = 1; row < size; row++) {
+                for (int d = 0; d < 2; d++) {
+                    boolean direction = d == 0;
+
+                    // start from identity, then trace all elements through
+                    // the twist
+                    int[] positions = new int[Cube.SIDES * sideSize];
+                    for (int i = 0; i < positions.length; i++) {
+                        positions[i] = i;
+                    }
+
+                    switch (axis) {
+                    case X:
+                        twistX(positions, row, direction);
+                        break;
+                    case Y:
+                        twistY(positions, row, direction);
+                        break;
+                    case Z:
+                        twistZ(positions, row, direction);
+                        break;
+                    }
+
+                    int move = move(size, axis, row, direction);
+                    permutation[move] = positions;
+                    splitCopies(move, positions);
+                    splitCycles(move, cycles(positions));
+                }
+            }
+        }
+
+        corners = findCorners();
+
+        // fixed seed, so all machines agree on the hash of a cube
+        Random random = new Random(size);
+        keys = new long[Cube.SIDES * sideSize * Cube.SIDES];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the permutation of a move, see class comment.
+     *
+     * @param move
+     *            number of the move
+     * @return the permutation. Should not be modified
+     */
+    int[] permutation(int move) {
+        return permutation[move];
+    }
+
+    /**
+     * Returns the elements of each corner cubie. The corner which never moves
+     * is last.
+     *
+     * @return three elements for each corner. Should not be modified
+     */
+    int[][] corners() {
+        return corners;
+    }
+
+    /**
+     * Determines the color each side has when the given cube is solved. The
+     * corner between the TOP, LEFT and FRONT sides is never moved by a twist,
+     * so it gives the colors of these sides. The opposite side has the only
+     * color that never shares a corner with the color of a side.
+     *
+     * @param elements
+     *            all elements of a cube of this size
+     * @return the color of each side when solved
+     */
+    byte[] solvedColors(byte[] elements) {
+        byte[] result = new byte[Cube.SIDES];
+
+        // colors that share a corner with each color
+        boolean[][] neighbours = new boolean[Cube.SIDES][Cube.SIDES];
+        for (int[] corner : corners) {
+            for (int a : corner) {
+                for (int b : corner) {
+                    neighbours[elements[a]][elements[b]] = true;
+                }
+            }
+        }
+
+        for (int element : corners[corners.length - 1]) {
+            int side = element / sideSize;
+            byte color = elements[element];
+            result[side] = color;
+
+            byte opposite = -1;
+            for (byte other = 0; other < Cube.SIDES; other++) {
+                if (!neighbours[color][other]) {
+                    if (opposite != -1) {
+                        throw new Error("cube not consistent!");
+                    }
+                    opposite = other;
+                }
+            }
+            if (opposite == -1) {
+                throw new Error("cube not consistent!");
+            }
+            result[oppositeSide(side)] = opposite;
+        }
+        return result;
+    }
+
+    /**
+     * Apply a move, gathering the elements of the source into the target.
+     * Source and target must not be the same array.
+     *
+     * @param move
+     *            number of the move
+     * @param source
+     *            elements before the move
+     * @param target
+     *            elements after the move
+     */
+    void apply(int move, byte[] source, byte[] target) {
+        int[] copies = this.copies[move];
+        int[] gathers = this.gathers[move];
+
+        for (int i = 0; i < copies.length; i += 3) {
+            System.arraycopy(source, copies[i + 1], target, copies[i],
+                    copies[i + 2]);
+        }
+
+        for (int i = 0; i < gathers.length; i += 2) {
+            target[gathers[i]] = source[gathers[i + 1]];
+        }
+    }
+
+    /**
+     * Apply a move in place. Only touches the elements which actually move.
+     *
+     * @param move
+     *            number of the move
+     * @param data
+     *            elements to twist
+     * @param buffer
+     *            temporary space for long runs, at least size * size elements
+     */
+    void applyInPlace(int move, byte[] data, byte[] buffer) {
+        int[] blocks = this.blocks[move];
+        int[] cycles = this.cycles[move];
+
+        for (int i = 0; i < blocks.length; i += 5) {
+            int a = blocks[i];
+            int b = blocks[i + 1];
+            int c = blocks[i + 2];
+            int d = blocks[i + 3];
+            int length = blocks[i + 4];
+
+            System.arraycopy(data, a, buffer, 0, length);
+            System.arraycopy(data, b, data, a, length);
+            System.arraycopy(data, c, data, b, length);
+            System.arraycopy(data, d, data, c, length);
+            System.arraycopy(buffer, 0, data, d, length);
+        }
+
+        for (int i = 0; i < cycles.length; i += 4) {
+            int a = cycles[i];
+            int b = cycles[i + 1];
+            int c = cycles[i + 2];
+            int d = cycles[i + 3];
+
+            byte tmp = data[a];
+            data[a] = data[b];
+            data[b] = data[c];
+            data[c] = data[d];
+            data[d] = tmp;
+        }
+    }
+
+    /**
+     * Computes the (Zobrist) hash of a cube from scratch.
+     *
+     * @param data
+     *            elements of the cube
+     * @return xor of the keys of all elements
+     */
+    long hash(byte[] data) {
+        long result = 0;
+        for (int i = 0; i < data.length; i++) {
+            result ^= keys[(i * Cube.SIDES) + data[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Computes the change in hash caused by a move, without doing the move.
+     * Only the elements which actually move are looked at.
+     *
+     * @param move
+     *            number of the move
+     * @param data
+     *            elements before the move
+     * @return value to xor with the hash before the move to get the hash after
+     */
+    long hashChange(int move, byte[] data) {
+        int[] blocks = this.blocks[move];
+        int[] cycles = this.cycles[move];
+        long result = 0;
+
+        for (int i = 0; i < blocks.length; i += 5) {
+            for (int j = 0; j < blocks[i + 4]; j++) {
+                result ^= hashChange(data, blocks[i] + j, blocks[i + 1] + j,
+                        blocks[i + 2] + j, blocks[i + 3] + j);
+            }
+        }
+
+        for (int i = 0; i < cycles.length; i += 4) {
+            result ^= hashChange(data, cycles[i], cycles[i + 1],
+                    cycles[i + 2], cycles[i + 3]);
+        }
+        return result;
+    }
+
+    private long hashChange(byte[] data, int a, int b, int c, int d) {
+        byte colorA = data[a];
+        byte colorB = data[b];
+        byte colorC = data[c];
+        byte colorD = data[d];
+
+        a *= Cube.SIDES;
+        b *= Cube.SIDES;
+        c *= Cube.SIDES;
+        d *= Cube.SIDES;
+
+        // remove the elements at their old position...
+        return keys[a + colorA] ^ keys[b + colorB] ^ keys[c + colorC]
+                ^ keys[d + colorD]
+                // ...and add them at their new one, see applyInPlace()
+                ^ keys[a + colorB] ^ keys[b + colorC] ^ keys[c + colorD]
+                ^ keys[d + colorA];
+    }
+
+    /**
+     * Splits a permutation into long runs of consecutive elements coming from
+     * consecutive elements, and all other elements.
+     *
+     * @param move
+     *            number of the move
+     * @param permutation
+     *            permutation of the move
+     */
+    private void splitCopies(int move, int[] permutation) {
+        int[] runs = new int[permutation.length * 3];
+        int[] others = new int[permutation.length * 2];
+        int nextRun = 0;
+        int nextOther = 0;
+
+        for (int start = 0; start < permutation.length;) {
+            int length = 1;
+            while (start + length < permutation.length
+                    && permutation[start + length] == permutation[start]
+                            + length) {
+                length++;
+            }
+
+            if (length >= MIN_COPY) {
+                runs[nextRun++] = start;
+                runs[nextRun++] = permutation[start];
+                runs[nextRun++] = length;
+            } else {
+                for (int i = start; i < start + length; i++) {
+                    others[nextOther++] = i;
+                    others[nextOther++] = permutation[i];
+                }
+            }
+            start += length;
+        }
+
+        copies[move] = trim(runs, nextRun);
+        gathers[move] = trim(others, nextOther);
+    }
+
+    /**
+     * Joins consecutive cycles into runs, splitting the long runs from all
+     * other cycles.
+     *
+     * @param move
+     *            number of the move
+     * @param cycles
+     *            all cycles of the move, see cycles()
+     */
+    private void splitCycles(int move, int[] cycles) {
+        int[] runs = new int[(cycles.length / 4) * 5];
+        int[] others = new int[cycles.length];
+        int nextRun = 0;
+        int nextOther = 0;
+
+        for (int start = 0; start < cycles.length;) {
+            int length = 1;
+            while (start + (length * 4) < cycles.length
+                    && continues(cycles, start, length)) {
+                length++;
+            }
+
+            if (length >= MIN_COPY) {
+                System.arraycopy(cycles, start, runs, nextRun, 4);
+                runs[nextRun + 4] = length;
+                nextRun += 5;
+            } else {
+                System.arraycopy(cycles, start, others, nextOther, length * 4);
+                nextOther += length * 4;
+            }
+            start += length * 4;
+        }
+
+        blocks[move] = trim(runs, nextRun);
+        this.cycles[move] = trim(others, nextOther);
+    }
+
+    // returns if the cycle after a run of cycles continues it
+    private static boolean continues(int[] cycles, int start, int length) {
+        int next = start + (length * 4);
+        for (int i = 0; i < 4; i++) {
+            if (cycles[next + i] != cycles[start + i] + length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] trim(int[] array, int length) {
+        int[] result = new int[length];
+        System.arraycopy(array, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Splits a permutation into cycles of four elements, leaving out all
+     * elements which do not move.
+     *
+     * @param permutation
+     *            permutation to split
+     * @return concatenation of all cycles, each in "gather" order
+     */
+    private static int[] cycles(int[] permutation) {
+        boolean[] done = new boolean[permutation.length];
+        int[] result = new int[permutation.length];
+        int next = 0;
+
+        for (int start = 0; start < permutation.length; start++) {
+            if (done[start] || permutation[start] == start) {
+                continue;
+            }
+
+            int length = 0;
+            for (int i = start; !done[i]; i = permutation[i]) {
+                done[i] = true;
+                result[next + length] = i;
+                length++;
+            }
+
+            if (length != 4) {
+                throw new Error("twist contains a cycle of length " + length);
+            }
+            next += length;
+        }
+
+        int[] trimmed = new int[next];
+        System.arraycopy(result, 0, trimmed, 0, next);
+        return trimmed;
+    }
+
+    /**
+     * Groups the corner elements of all sides into corner cubies: elements
+     * of the same cubie are moved by exactly the same twists. Twisting only
+     * the last row of each axis is enough to tell all corners apart.
+     */
+    private int[][] findCorners() {
+        int[] signatures = new int[Cube.SIDES * sideSize];
+        for (Cube.Axis axis : Cube.Axis.values()) {
+            int[] moved = permutation[move(size, axis, size - 1, true)];
+            for (int element = 0; element < signatures.length; element++) {
+                if (moved[element] != element) {
+                    signatures[element] |= 1 << axis.ordinal();
+                }
+            }
+        }
+
+        List<int[]> result = new ArrayList<int[]>();
+        int[] fixed = null;
+        int last = size - 1;
+        int[] elements = { 0, last, last * size, (last * size) + last };
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            for (int element : elements) {
+                int index = (side * sideSize) + element;
+
+                // collect the elements of this corner, if not done already
+                List<Integer> corner = new ArrayList<Integer>();
+                for (int otherSide = 0; otherSide < Cube.SIDES; otherSide++) {
+                    for (int other : elements) {
+                        int otherIndex = (otherSide * sideSize) + other;
+                        if (signatures[otherIndex] == signatures[index]) {
+                            corner.add(otherIndex);
+                        }
+                    }
+                }
+                if (corner.get(0) != index) {
+                    continue;
+                }
+                if (corner.size() != 3) {
+                    throw new Error("could not determine corner cubies");
+                }
+
+                int[] cubie = { corner.get(0), corner.get(1), corner.get(2) };
+                if (signatures[index] == 0) {
+                    fixed = cubie;
+                } else {
+                    result.add(cubie);
+                }
+            }
+        }
+
+        if (fixed == null || result.size() != 7) {
+            throw new Error("could not determine corner cubies");
+        }
+        result.add(fixed);
+
+        return result.toArray(new int[result.size()][]);
+    }
+
+    private static int oppositeSide(int side) {
+        switch (side) {
+        case Cube.TOP:
+            return Cube.BOTTOM;
+        case Cube.BOTTOM:
+            return Cube.TOP;
+        case Cube.LEFT:
+            return Cube.RIGHT;
+        case Cube.RIGHT:
+            return Cube.LEFT;
+        case Cube.FRONT:
+            return Cube.BACK;
+        default:
+            return Cube.FRONT;
+        }
+    }
+
+    // *** Table construction. Mirrors the original twist code, but on
+    // positions instead of colors ***\\
+
+    private int inverse(int value) {
+        return size - 1 - value;
+    }
+
+    private int element(int side, int row, int column) {
+        return (side * sideSize) + (row * size) + column;
+    }
+
+    private void rotate(int[] data, int side, boolean direction) {
+        int[] result = new int[sideSize];
+
+        if (direction) {
+            for (int row = 0; row < size; row++) {
+                int toColumn = inverse(row);
+                for (int column = 0; column < size; column++) {
+                    int toRow = column;
+                    result[(toRow * size) + toColumn] = data[element(side,
+                            row, column)];
+                }
+            }
+        } else {
+            for (int row = 0; row < size; row++) {
+                int fromColumn = inverse(row);
+                for (int column = 0; column < size; column++) {
+                    int fromRow = column;
+                    result[(row * size) + column] = data[element(side,
+                            fromRow, fromColumn)];
+                }
+            }
+        }
+
+        System.arraycopy(result, 0, data, side * sideSize, sideSize);
+    }
+
+    private void twistX(int[] data, int firstRow, boolean direction) {
+        for (int row = firstRow; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int left = element(Cube.LEFT, row, column);
+                int front = element(Cube.FRONT, row, column);
+                int right = element(Cube.RIGHT, row, column);
+                int back = element(Cube.BACK, row, column);
+
+                if (direction) {
+                    int tmp = data[back];
+                    data[back] = data[right];
+                    data[right] = data[front];
+                    data[front] = data[left];
+                    data[left] = tmp;
+                } else {
+                    int tmp = data[left];
+                    data[left] = data[front];
+                    data[front] = data[right];
+                    data[right] = data[back];
+                    data[back] = tmp;
+                }
+            }
+        }
+
+        rotate(data, Cube.BOTTOM, direction);
+    }
+
+    private void twistY(int[] data, int firstColumn, boolean direction) {
+        for (int row = 0; row < size; row++) {
+            for (int column = firstColumn; column < size; column++) {
+                int top = element(Cube.TOP, row, column);
+                int front = element(Cube.FRONT, row, column);
+                int bottom = element(Cube.BOTTOM, row, column);
+                // back is "mirrored"
+                int back = element(Cube.BACK, inverse(row), inverse(column));
+
+                if (direction) {
+                    int tmp = data[top];
+                    data[top] = data[front];
+                    data[front] = data[bottom];
+                    data[bottom] = data[back];
+                    data[back] = tmp;
+                } else {
+                    int tmp = data[top];
+                    data[top] = data[back];
+                    data[back] = data[bottom];
+                    data[bottom] = data[front];
+                    data[front] = tmp;
+                }
+            }
+        }
+
+        rotate(data, Cube.RIGHT, direction);
+    }
+
+    private void twistZ(int[] data, int firstRow, boolean direction) {
+        for (int row = firstRow; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int top = element(Cube.TOP, inverse(row), column);
+                int right = element(Cube.RIGHT, column, row);
+                int bottom = element(Cube.BOTTOM, row, inverse(column));
+                int left = element(Cube.LEFT, inverse(column), inverse(row));
+
+                if (direction) {
+                    int tmp = data[top];
+                    data[top] = data[left];
+                    data[left] = data[bottom];
+                    data[bottom] = data[right];
+                    data[right] = tmp;
+                } else {
+                    int tmp = data[top];
+                    data[top] = data[right];
+                    data[right] = data[bottom];
+                    data[bottom] = data[left];
+                    data[left] = tmp;
+                }
+            }
+        }
+
+        rotate(data, Cube.BACK, !direction);
+    }
+}